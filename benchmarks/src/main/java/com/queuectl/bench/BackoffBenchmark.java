@@ -0,0 +1,24 @@
+package com.queuectl.bench;
+
+import com.queuectl.core.Backoff;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// delaySeconds per policy; decorrelated replays its draws from the job id, so its cost grows with attempts.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BackoffBenchmark {
+  @Param({"exponential", "decorrelated", "fixed"}) Backoff.Policy policy;
+  @Param({"1", "5", "30"}) int attempts;
+  private Backoff backoff;
+
+  @Setup public void setup(){ backoff = new Backoff(policy, 2, 3600); }
+
+  @Benchmark
+  public int delaySeconds(){ return backoff.delaySeconds(attempts, "job-42"); }
+}
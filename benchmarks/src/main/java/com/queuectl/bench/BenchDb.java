@@ -0,0 +1,61 @@
+package com.queuectl.bench;
+
+import com.queuectl.core.Clock;
+import com.queuectl.core.JobService;
+import com.queuectl.db.DataSourceFactory;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+// A migrated SQLite file in a temp directory, deleted on close.
+final class BenchDb implements AutoCloseable {
+  final Path dir;
+  final DataSource ds;
+  final JobService jobs;
+
+  BenchDb() {
+    try { dir = Files.createTempDirectory("queuectl-bench"); } catch (IOException e) { throw new UncheckedIOException(e); }
+    ds = DataSourceFactory.sqlite(dir.resolve("bench.db").toString());
+    Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
+    jobs = new JobService(ds, (Clock)Instant::now);
+  }
+
+  static Map<String,Object> job(String id, String command) {
+    Map<String,Object> m = new LinkedHashMap<>();
+    m.put("id", id); m.put("command", command); m.put("max_retries", 1_000_000);
+    return m;
+  }
+
+  // Bulk-loads n jobs with ids prefix0..; a blockedFraction of them depend on a parent that never completes.
+  void load(String prefix, int n, double blockedFraction) {
+    if (blockedFraction > 0) jobs.enqueue(job(prefix + "parent", "true"));
+    int every = blockedFraction > 0 ? (int)Math.max(1, Math.round(1 / blockedFraction)) : 0;
+    Iterator<JobService.BatchEntry> it = LongStream.range(0, n).mapToObj(i -> {
+      Map<String,Object> m = job(prefix + i, "true");
+      if (every > 0 && i % every == 0) m.put("depends_on", List.of(prefix + "parent"));
+      return new JobService.BatchEntry(i + 1, m);
+    }).iterator();
+    jobs.enqueueBatch(it, 5000, r -> { throw new IllegalStateException(r.reason()); });
+  }
+
+  @Override
+  public void close() {
+    ((HikariDataSource) ds).close();
+    try (Stream<Path> s = Files.walk(dir)) {
+      s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    } catch (IOException ignored) {}
+  }
+}
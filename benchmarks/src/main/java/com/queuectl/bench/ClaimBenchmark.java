@@ -0,0 +1,36 @@
+package com.queuectl.bench;
+
+import com.queuectl.model.Job;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * claimNext against a standing backlog, where part of the backlog waits on an unfinished parent, in
+ * strict priority order and with the default five minutes of priority aging. Each op hands the lease
+ * back so the backlog stays the same size; the pair is what is measured.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClaimBenchmark {
+  @Param({"1000", "100000"}) int backlog;
+  @Param({"0", "0.5"}) double blockedFraction;
+  @Param({"0", "300000"}) long agingMillis;
+
+  private BenchDb db;
+
+  @Setup(Level.Trial) public void open(){ db = new BenchDb(); db.load("c", backlog, blockedFraction); }
+  @TearDown(Level.Trial) public void close(){ db.close(); }
+
+  @Benchmark
+  public Job claimAndRelease(){
+    Job j = db.jobs.claimNext("default", "bench", 30, agingMillis).orElseThrow();
+    db.jobs.releaseLeases("default", List.of(j.id()), "bench");
+    return j;
+  }
+}
@@ -0,0 +1,21 @@
+package com.queuectl.bench;
+
+import com.queuectl.core.CommandExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// fork/exec plus output capture: a silent command and one printing about 0.5 MB on stdout and stderr.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandExecutorBenchmark {
+  @Param({"true", "seq 1 100000; seq 1 100000 >&2"}) String command;
+  private final CommandExecutor exec = new CommandExecutor();
+
+  @Benchmark
+  public CommandExecutor.Result run() throws Exception { return exec.run(command, 30); }
+}
@@ -0,0 +1,43 @@
+package com.queuectl.bench;
+
+import com.queuectl.core.Backoff;
+import com.queuectl.model.Job;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Terminal writes for a claimed job: completion (with dependents lookup) and a failure that reschedules.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompletionBenchmark {
+  private static final int REFILL = 20_000;
+  private final Backoff backoff = new Backoff(2, 3600);
+  private BenchDb db;
+  private int batch;
+  private Job claimed;
+
+  @Setup(Level.Trial) public void open(){ db = new BenchDb(); }
+  @TearDown(Level.Trial) public void close(){ db.close(); }
+
+  // Claiming is setup, not measured; the backlog is topped up whenever it runs dry.
+  @Setup(Level.Invocation)
+  public void claim(){
+    var j = db.jobs.claimNext("default", "bench", 300, 0);
+    if (j.isEmpty()) { db.load("b" + batch++ + "-", REFILL, 0); j = db.jobs.claimNext("default", "bench", 300, 0); }
+    claimed = j.orElseThrow();
+  }
+
+  @Benchmark
+  public void markCompleted(){
+    db.jobs.markCompleted(claimed, 0, null).join();
+  }
+
+  @Benchmark
+  public void onFail(){
+    db.jobs.onFail(claimed, 1, "failed", backoff).join();
+  }
+}
@@ -0,0 +1,25 @@
+package com.queuectl.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Single-job enqueue: one insert plus the queue_stats trigger, in its own transaction.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnqueueBenchmark {
+  private BenchDb db;
+  private long seq;
+
+  @Setup(Level.Trial) public void open(){ db = new BenchDb(); }
+  @TearDown(Level.Trial) public void close(){ db.close(); }
+
+  @Benchmark
+  public void enqueue(){
+    db.jobs.enqueue(BenchDb.job("e" + seq++, "true"));
+  }
+}
@@ -0,0 +1,27 @@
+package com.queuectl.bench;
+
+import com.queuectl.core.RateLimiter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// tryAcquire with 4 contending threads: a bucket that always has permits, and one that is mostly empty.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+  @Param({"1000", "1000000000"}) int ratePerSec;
+  private RateLimiter limiter;
+
+  @Setup public void setup(){ limiter = new RateLimiter(ratePerSec); }
+
+  @Benchmark
+  public boolean tryAcquire(){ return limiter.tryAcquire(); }
+
+  @Benchmark
+  public int acquireUpTo8(){ return limiter.acquireUpTo(8); }
+}
@@ -8,7 +8,7 @@ import picocli.CommandLine;
   mixinStandardHelpOptions = true,
   subcommands = {
     EnqueueCmd.class, WorkerCmd.class, StatusCmd.class, ListCmd.class,
-    DlqCmd.class, ConfigCmd.class, LogsCmd.class, QueueCmd.class
+    DlqCmd.class, ConfigCmd.class, LogsCmd.class, QueueCmd.class, StatsCmd.class, BenchCmd.class
   },
   description = "QueueCTL - production-style background job queue"
 )
@@ -0,0 +1,240 @@
+package com.queuectl.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.queuectl.core.LatencyHistogram;
+import com.queuectl.core.Metrics;
+import com.queuectl.core.RateLimiter;
+import com.queuectl.daemon.QueueDaemon;
+import com.queuectl.db.DataSourceFactory;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+@CommandLine.Command(name="bench", description="Run a synthetic workload through an embedded daemon on a fresh database and report latencies")
+public class BenchCmd implements Runnable {
+  private static final String QUEUE = "bench";
+
+  @CommandLine.Option(names="--jobs", defaultValue="10000") int jobs;
+  @CommandLine.Option(names="--rate", defaultValue="0", description="enqueue rate in jobs/s; 0 enqueues as fast as possible") double rate;
+  @CommandLine.Option(names="--duration", defaultValue="const:0", description="job run time in ms: const:MS, uniform:MIN-MAX or exp:MEAN") String duration;
+  @CommandLine.Option(names="--priorities", defaultValue="0:1", description="priority:weight[,priority:weight...]") String priorities;
+  @CommandLine.Option(names="--fail-rate", defaultValue="0", description="fraction of jobs that exit 1 (no retries)") double failRate;
+  @CommandLine.Option(names="--fanout", defaultValue="0", description="children depending on each parent job; 0 for independent jobs") int fanout;
+  @CommandLine.Option(names="--workers", defaultValue="4") int workers;
+  @CommandLine.Option(names="--prefetch", defaultValue="4") int prefetch;
+  @CommandLine.Option(names="--write-behind", defaultValue="false") boolean writeBehind;
+  @CommandLine.Option(names="--store", defaultValue="sqlite", description="job store of the bench queue: sqlite, journal or memory") String store;
+  @CommandLine.Option(names="--virtual-threads", defaultValue="false") boolean virtualThreads;
+  @CommandLine.Option(names="--timeout-sec", defaultValue="600", description="give up waiting for the workload to drain after this long") int timeoutSec;
+  @CommandLine.Option(names="--seed", defaultValue="42") long seed;
+  @CommandLine.Option(names="--db", description="database file to create (must not exist); a temp file by default") String db;
+  @CommandLine.Option(names="--out", defaultValue="bench-result.json") File out;
+
+  public void run(){
+    try { bench(); }
+    catch (Exception e){ System.err.println("bench failed: " + e.getMessage()); System.exit(1); }
+  }
+
+  private void bench() throws Exception {
+    Path dbFile = db != null ? Path.of(db) : Files.createTempDirectory("queuectl-bench").resolve("bench.db");
+    if (Files.exists(dbFile)) throw new IllegalArgumentException(dbFile + " already exists; bench needs a fresh database");
+    prepare(dbFile.toString());
+
+    Random rnd = new Random(seed);
+    Sampler runMs = sampler(duration);
+    int[][] prio = weights(priorities);
+    var h = QueueDaemon.launch(dbFile.toString(), Map.of(QUEUE, workers), false,
+      new QueueDaemon.Options(prefetch, writeBehind, virtualThreads, false, 30, 16, 0));
+    LatencyHistogram enqueueLatency = new LatencyHistogram();
+    long startMillis = System.currentTimeMillis(), start = System.nanoTime();
+    boolean drained;
+    long enqueueNanos;
+    Map<String,Long> finished;
+    try {
+      for (int i = 0; i < jobs; i++) {
+        if (rate > 0) {
+          long due = start + (long)(i * 1e9 / rate);
+          long wait = due - System.nanoTime();
+          if (wait > 0) LockSupport.parkNanos(wait);
+        }
+        long t = System.nanoTime();
+        h.jobs().enqueue(job(i, rnd, runMs, prio));
+        enqueueLatency.record(System.nanoTime() - t);
+      }
+      enqueueNanos = System.nanoTime() - start;
+      drained = awaitDrain(h.jobs(), start + TimeUnit.SECONDS.toNanos(timeoutSec));
+      finished = h.jobs().countsByState();
+    } finally {
+      h.stop();
+    }
+    long wallNanos = System.nanoTime() - start;
+
+    Map<String,Object> report = new LinkedHashMap<>();
+    report.put("config", config());
+    report.put("drained", drained);
+    report.put("wall_seconds", wallNanos / 1e9);
+    Map<String,Object> enq = new LinkedHashMap<>();
+    enq.put("jobs", jobs); enq.put("seconds", enqueueNanos / 1e9); enq.put("jobs_per_sec", jobs / (enqueueNanos / 1e9));
+    enq.put("latency_ms", percentiles(enqueueLatency));
+    report.put("enqueue", enq);
+    report.put("claim_latency_ms", percentiles(h.jobs().metrics().histogram(Metrics.Stage.CLAIM, QUEUE)));
+    if (!store.equals("sqlite")) {
+      // nothing reaches the database: counts come from the store and queue wait from the claim-time histogram
+      report.put("completed", finished.get("completed"));
+      report.put("dead", finished.get("dead"));
+      report.put("queue_wait_ms", percentiles(h.jobs().metrics().histogram(Metrics.Stage.QUEUE_WAIT, QUEUE)));
+    } else analyze(dbFile.toString(), startMillis, report);
+
+    new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out, report);
+    summary(report);
+    System.out.println("📄 Results written to " + out.getPath());
+  }
+
+  // Migrates and registers the bench queue unthrottled before the daemon reads queue settings.
+  private void prepare(String path) throws Exception {
+    try (var ds = (HikariDataSource) DataSourceFactory.sqlite(path)) {
+      Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
+      try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("INSERT INTO queues(name, rate_limit_per_sec, concurrency, paused, store) VALUES(?,?,?,0,?)")) {
+        ps.setString(1, QUEUE); ps.setInt(2, RateLimiter.UNLIMITED); ps.setInt(3, workers); ps.setString(4, store); ps.executeUpdate();
+      }
+    }
+  }
+
+  private Map<String,Object> job(int i, Random rnd, Sampler runMs, int[][] prio){
+    long ms = runMs.next(rnd);
+    String cmd = ms <= 0 ? "true" : String.format(Locale.ROOT, "sleep %.3f", ms / 1000.0);
+    Map<String,Object> m = new LinkedHashMap<>();
+    m.put("id", "b" + i);
+    m.put("queue", QUEUE);
+    boolean parent = fanout > 0 && i % (fanout + 1) == 0;
+    // parents never fail: their children would wait on them forever and the run would not drain
+    m.put("command", !parent && rnd.nextDouble() < failRate ? cmd + "; exit 1" : cmd);
+    m.put("max_retries", 0);
+    m.put("priority", pick(prio, rnd));
+    if (fanout > 0 && !parent) m.put("depends_on", "b" + (i - i % (fanout + 1)));
+    return m;
+  }
+
+  private boolean awaitDrain(com.queuectl.core.JobService js, long deadline) throws InterruptedException {
+    while (System.nanoTime() < deadline) {
+      var c = js.countsByState();
+      if (c.getOrDefault("completed", 0L) + c.getOrDefault("dead", 0L) >= jobs) return true;
+      Thread.sleep(100);
+    }
+    return false;
+  }
+
+  // Per-job timings from the finished table; queue wait and end-to-end cover jobs without dependencies.
+  private void analyze(String path, long startMillis, Map<String,Object> report) throws Exception {
+    List<Long> wait = new ArrayList<>(), e2e = new ArrayList<>();
+    TreeMap<Long, Long> perSecond = new TreeMap<>();
+    long completed = 0, dead = 0;
+    try (var ds = (HikariDataSource) DataSourceFactory.sqlite(path);
+         Connection c = ds.getConnection();
+         PreparedStatement ps = c.prepareStatement("""
+           SELECT state, created_at, run_after, claimed_at, updated_at,
+                  EXISTS(SELECT 1 FROM job_deps d WHERE d.job_id=j.id)
+           FROM jobs j WHERE state IN ('completed','dead')""");
+         ResultSet rs = ps.executeQuery()) {
+      while (rs.next()) {
+        if (rs.getString(1).equals("completed")) completed++; else dead++;
+        long created = rs.getLong(2), runAfter = rs.getLong(3), claimed = rs.getLong(4), done = rs.getLong(5);
+        perSecond.merge(Math.max(0, (done - startMillis) / 1000), 1L, Long::sum);
+        if (rs.getBoolean(6)) continue;
+        if (claimed > 0) wait.add(claimed - Math.max(created, runAfter));
+        e2e.add(done - created);
+      }
+    }
+    report.put("completed", completed);
+    report.put("dead", dead);
+    report.put("queue_wait_ms", percentiles(wait));
+    report.put("end_to_end_ms", percentiles(e2e));
+    List<Long> series = new ArrayList<>();
+    if (!perSecond.isEmpty()) for (long s = 0; s <= perSecond.lastKey(); s++) series.add(perSecond.getOrDefault(s, 0L));
+    report.put("finished_per_sec", series);
+  }
+
+  private static Map<String,Object> percentiles(LatencyHistogram h){
+    Map<String,Object> m = new LinkedHashMap<>();
+    m.put("count", h.count());
+    for (var q: new double[][]{{50, .5}, {99, .99}, {99.9, .999}}) m.put(label(q[0]), millis(h.percentile(q[1])));
+    m.put("mean", h.count() == 0 ? 0 : millis(h.sumNanos() / h.count()));
+    return m;
+  }
+
+  private static Map<String,Object> percentiles(List<Long> values){
+    long[] v = values.stream().mapToLong(Long::longValue).sorted().toArray();
+    Map<String,Object> m = new LinkedHashMap<>();
+    m.put("count", v.length);
+    for (var q: new double[][]{{50, .5}, {99, .99}, {99.9, .999}}) m.put(label(q[0]), v.length == 0 ? 0 : v[(int)Math.min(v.length - 1, Math.ceil(q[1] * v.length) - 1)]);
+    m.put("max", v.length == 0 ? 0 : v[v.length - 1]);
+    return m;
+  }
+
+  private static double millis(long nanos){ return Math.round(nanos / 1e3) / 1e3; }
+
+  private static String label(double p){ return "p" + (p == Math.rint(p) ? String.valueOf((int)p) : String.valueOf(p).replace(".", "")); }
+
+  private Map<String,Object> config(){
+    Map<String,Object> m = new LinkedHashMap<>();
+    m.put("jobs", jobs); m.put("rate", rate); m.put("duration", duration); m.put("priorities", priorities);
+    m.put("fail_rate", failRate); m.put("fanout", fanout); m.put("workers", workers); m.put("prefetch", prefetch);
+    m.put("write_behind", writeBehind); m.put("store", store); m.put("virtual_threads", virtualThreads); m.put("seed", seed);
+    m.put("cpus", Runtime.getRuntime().availableProcessors()); m.put("java", System.getProperty("java.version"));
+    return m;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void summary(Map<String,Object> r){
+    var enq = (Map<String,Object>) r.get("enqueue");
+    System.out.printf("🏁 %s completed, %s dead in %.2fs (drained=%s)%n", r.get("completed"), r.get("dead"), (Double) r.get("wall_seconds"), r.get("drained"));
+    System.out.printf("   enqueue: %.0f jobs/s  latency %s%n", (Double) enq.get("jobs_per_sec"), enq.get("latency_ms"));
+    System.out.printf("   claim:   %s%n", r.get("claim_latency_ms"));
+    System.out.printf("   wait:    %s%n", r.get("queue_wait_ms"));
+    System.out.printf("   e2e:     %s%n", r.get("end_to_end_ms"));
+  }
+
+  private interface Sampler { long next(Random r); }
+
+  private static Sampler sampler(String spec){
+    String[] p = spec.split(":", 2);
+    if (p.length != 2) throw new IllegalArgumentException("bad --duration: " + spec);
+    switch (p[0]) {
+      case "const": { long v = Long.parseLong(p[1]); return r -> v; }
+      case "uniform": {
+        String[] b = p[1].split("-");
+        long lo = Long.parseLong(b[0]), hi = Long.parseLong(b[1]);
+        return r -> lo + (long)(r.nextDouble() * (hi - lo + 1));
+      }
+      case "exp": { double mean = Double.parseDouble(p[1]); return r -> (long)(-mean * Math.log(1 - r.nextDouble())); }
+      default: throw new IllegalArgumentException("bad --duration: " + spec);
+    }
+  }
+
+  private static int[][] weights(String spec){
+    List<int[]> out = new ArrayList<>();
+    for (String part: spec.split(",")) {
+      String[] kv = part.split(":");
+      out.add(new int[]{Integer.parseInt(kv[0].trim()), kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1});
+    }
+    return out.toArray(new int[0][]);
+  }
+
+  private static int pick(int[][] w, Random r){
+    int total = 0;
+    for (int[] e: w) total += e[1];
+    int x = r.nextInt(Math.max(1, total));
+    for (int[] e: w) { if ((x -= e[1]) < 0) return e[0]; }
+    return w[0][0];
+  }
+}
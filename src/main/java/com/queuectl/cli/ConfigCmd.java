@@ -1,9 +1,11 @@
 package com.queuectl.cli;
 
+import com.queuectl.core.ConfigService;
 import com.queuectl.db.DataSourceFactory;
 import org.flywaydb.core.Flyway;
 import picocli.CommandLine;
 import javax.sql.DataSource;
+import java.util.Map;
 
 @CommandLine.Command(name="config", description="Get/Set config", subcommands = {ConfigCmd.Get.class, ConfigCmd.Set.class})
 public class ConfigCmd implements Runnable {
@@ -14,12 +16,9 @@ public class ConfigCmd implements Runnable {
     @CommandLine.Parameters(paramLabel="KEY") String key;
     @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
     public void run(){
-      DataSource ds = DataSourceFactory.sqlite(db);
-      Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
-      try (var c=ds.getConnection(); var ps=c.prepareStatement("SELECT value FROM config WHERE key=?")){
-        ps.setString(1, key); try (var rs=ps.executeQuery()){
-          System.out.println(rs.next()? rs.getString(1): "(not set)");
-        }
+      try (DaemonClient d = DaemonClient.connect(db)) {
+        String v = d != null ? d.call("config_get", Map.of("key", key), String.class) : new ConfigService(migrated(db)).get(key).orElse(null);
+        System.out.println(v != null ? v : "(not set)");
       } catch(Exception e){ System.err.println(e.getMessage()); System.exit(1); }
     }
   }
@@ -30,11 +29,17 @@ public class ConfigCmd implements Runnable {
     @CommandLine.Parameters(index="1", paramLabel="VALUE") String value;
     @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
     public void run(){
-      DataSource ds = DataSourceFactory.sqlite(db);
-      Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
-      try (var c=ds.getConnection(); var ps=c.prepareStatement("INSERT INTO config(key,value) VALUES(?,?) ON CONFLICT(key) DO UPDATE SET value=excluded.value")){
-        ps.setString(1, key); ps.setString(2, value); ps.executeUpdate(); System.out.println("ok");
+      try (DaemonClient d = DaemonClient.connect(db)) {
+        if (d != null) d.call("config_set", Map.of("key", key, "value", value), Void.class);
+        else new ConfigService(migrated(db)).set(key, value);
+        System.out.println("ok");
       } catch(Exception e){ System.err.println(e.getMessage()); System.exit(1); }
     }
   }
+
+  private static DataSource migrated(String db){
+    DataSource ds = DataSourceFactory.sqlite(db);
+    Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
+    return ds;
+  }
 }
@@ -0,0 +1,66 @@
+package com.queuectl.cli;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.queuectl.db.DataSourceFactory;
+
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+// Client end of a running daemon's control socket (see ControlServer for the protocol).
+final class DaemonClient implements AutoCloseable {
+  private static final ObjectMapper JSON = new ObjectMapper();
+
+  private final SocketChannel ch;
+  private final BufferedReader in;
+  private final Writer out;
+
+  private DaemonClient(SocketChannel ch){
+    this.ch = ch;
+    this.in = new BufferedReader(new InputStreamReader(Channels.newInputStream(ch), StandardCharsets.UTF_8));
+    this.out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(ch), StandardCharsets.UTF_8));
+  }
+
+  // Null when no daemon serves the database, and the caller opens it directly. A socket that is not this
+  // user's with mode 0600 is no daemon of ours; it is reported and passed over.
+  static DaemonClient connect(String db){
+    Path path = DataSourceFactory.controlSocket(db);
+    if (!Files.exists(path)) return null;
+    try {
+      if (!DataSourceFactory.privateSocket(path)) {
+        System.err.println("Ignoring control socket " + path + ": it is not yours with mode 0600");
+        return null;
+      }
+      return new DaemonClient(SocketChannel.open(UnixDomainSocketAddress.of(path)));
+    } catch (IOException e) { return null; } // stale socket of a daemon that died
+  }
+
+  <T> T call(String op, Map<String,?> args, Class<T> type){ return JSON.convertValue(call(op, args), type); }
+  <T> T call(String op, Map<String,?> args, TypeReference<T> type){ return JSON.convertValue(call(op, args), type); }
+
+  // Returns the result node; an error reply is thrown with the daemon's message.
+  private JsonNode call(String op, Map<String,?> args){
+    ObjectNode req = JSON.valueToTree(args);
+    req.put("op", op);
+    try {
+      out.write(JSON.writeValueAsString(req)); out.write('\n'); out.flush();
+      String line = in.readLine();
+      if (line == null) throw new IOException("daemon closed the control connection");
+      JsonNode reply = JSON.readTree(line);
+      if (!reply.path("ok").asBoolean()) throw new RuntimeException(reply.path("error").asText());
+      return reply.get("result");
+    } catch (IOException e) { throw new UncheckedIOException(e); }
+  }
+
+  @Override public void close(){
+    try { ch.close(); } catch (IOException ignored) {}
+  }
+}
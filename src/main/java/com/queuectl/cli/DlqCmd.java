@@ -1,12 +1,12 @@
 package com.queuectl.cli;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.queuectl.core.JobService;
 import com.queuectl.core.Clock;
-import com.queuectl.db.DataSourceFactory;
-import org.flywaydb.core.Flyway;
+import com.queuectl.db.Shards;
 import picocli.CommandLine;
-import javax.sql.DataSource;
 import java.time.Instant;
+import java.util.Map;
 
 @CommandLine.Command(name="dlq", description="DLQ operations", subcommands = {DlqCmd.List.class, DlqCmd.Retry.class})
 public class DlqCmd implements Runnable {
@@ -16,10 +16,10 @@ public class DlqCmd implements Runnable {
   public static class List implements Runnable {
     @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
     public void run(){
-      DataSource ds = DataSourceFactory.sqlite(db);
-      Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
-      JobService js = new JobService(ds, (Clock)Instant::now);
-      var rows = js.listDlq();
+      java.util.List<Map<String,Object>> rows;
+      try (DaemonClient d = DaemonClient.connect(db)) {
+        rows = d != null ? d.call("dlq_list", Map.of(), new TypeReference<>(){}) : new JobService(Shards.open(db), (Clock)Instant::now).listDlq();
+      }
       System.out.println("☠️  DLQ:");
       rows.forEach(r -> System.out.printf("- id=%s queue=%s cmd=\"%s\" attempts=%d last_exit=%s%n",
         r.get("id"), r.get("queue"), r.get("command"), r.get("attempts"), r.get("last_exit_code")));
@@ -31,10 +31,10 @@ public class DlqCmd implements Runnable {
     @CommandLine.Parameters(paramLabel="ID") String id;
     @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
     public void run(){
-      DataSource ds = DataSourceFactory.sqlite(db);
-      Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
-      JobService js = new JobService(ds, (Clock)Instant::now);
-      js.retryFromDlq(id);
+      try (DaemonClient d = DaemonClient.connect(db)) {
+        if (d != null) d.call("dlq_retry", Map.of("id", id), Void.class);
+        else new JobService(Shards.open(db), (Clock)Instant::now).retryFromDlq(id);
+      }
       System.out.println("🔁 Re-enqueued from DLQ: "+id);
     }
   }
@@ -2,14 +2,26 @@ package com.queuectl.cli;
 
 import com.queuectl.core.JobService;
 import com.queuectl.core.Clock;
-import com.queuectl.db.DataSourceFactory;
+import com.queuectl.db.Shards;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.flywaydb.core.Flyway;
+import com.fasterxml.jackson.databind.ObjectReader;
 import picocli.CommandLine;
 
-import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 @CommandLine.Command(
     name = "enqueue",
@@ -19,26 +31,46 @@ public class EnqueueCmd implements Runnable {
 
   @CommandLine.Parameters(
       index = "0",
+      arity = "0..1",
       paramLabel = "JSON",
       description = "Job JSON (e.g. {\"id\":\"job1\",\"queue\":\"default\",\"command\":\"sleep 1\"})"
   )
   private String json;
 
+  @CommandLine.Option(names="--file", paramLabel="FILE", description="NDJSON file with one job per line, or - for stdin")
+  private String file;
+
+  @CommandLine.Option(names="--chunk", defaultValue="5000", description="Rows per transaction for --file")
+  private int chunk;
+
   @CommandLine.Option(names="--db", defaultValue="queuectl.db", description="SQLite DB path")
   private String db;
 
   @Override
   public void run() {
-    DataSource ds = DataSourceFactory.sqlite(db);
-    Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
-
-    Clock clock = Instant::now;
-    JobService js = new JobService(ds, clock);
+    if ((json == null) == (file == null)) {
+      System.err.println("❌ enqueue error: pass either a JSON argument or --file");
+      System.exit(1);
+    }
+    try (DaemonClient d = DaemonClient.connect(db)) {
+      // a running daemon takes the jobs itself; otherwise open the database here
+      JobService js = d == null ? new JobService(Shards.open(db), (Clock)Instant::now) : null;
+      if (file != null) enqueueFile(d, js);
+      else enqueueOne(d, js);
+    }
+  }
 
+  private void enqueueOne(DaemonClient d, JobService js) {
     try {
       @SuppressWarnings("unchecked")
       Map<String, Object> map = new ObjectMapper().readValue(json, Map.class);
-      js.enqueue(map);
+      if (d != null) d.call("enqueue", Map.of("job", map), Void.class);
+      else js.enqueue(map);
+      if (map.get("cron") != null) {
+        System.out.printf("⏰ Scheduled: id=%s queue=%s cron=\"%s\" command=\"%s\"%n",
+            map.get("id"), map.getOrDefault("queue","default"), map.get("cron"), map.get("command"));
+        return;
+      }
       System.out.printf("✅ Enqueued: id=%s queue=%s command=\"%s\"%n",
           map.get("id"), map.getOrDefault("queue","default"), map.get("command"));
     } catch (Exception e) {
@@ -46,4 +78,81 @@ public class EnqueueCmd implements Runnable {
       System.exit(1);
     }
   }
+
+  private void enqueueFile(DaemonClient d, JobService js) {
+    long start = System.nanoTime();
+    long[] rejected = {0};
+    try (BufferedReader in = "-".equals(file)
+        ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+        : Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8)) {
+      NdjsonEntries entries = new NdjsonEntries(in, r -> {
+        rejected[0]++;
+        System.err.printf("⚠️  line %d: %s%n", r.line(), r.reason());
+      });
+      Consumer<JobService.Rejection> onReject = r -> {
+        rejected[0]++;
+        System.err.printf("⚠️  line %d (id=%s): %s%n", r.line(), r.id(), r.reason());
+      };
+      long inserted = d != null ? sendChunks(d, entries, onReject) : js.enqueueBatch(entries, chunk, onReject);
+      double secs = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+      System.out.printf("✅ Enqueued %d jobs (%d rejected) in %.2fs (%.0f jobs/s)%n", inserted, rejected[0], secs, inserted / secs);
+    } catch (Exception e) {
+      System.err.println("❌ enqueue error: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  private record BatchReply(long inserted, List<JobService.Rejection> rejected) {}
+
+  // Ships the file to the daemon one request per chunk, so neither side holds more than a chunk of it.
+  private long sendChunks(DaemonClient d, Iterator<JobService.BatchEntry> entries, Consumer<JobService.Rejection> onReject) {
+    long inserted = 0;
+    List<Map<String, Object>> batch = new ArrayList<>(Math.min(chunk, 65536));
+    while (entries.hasNext()) {
+      JobService.BatchEntry e = entries.next();
+      batch.add(Map.of("line", e.line(), "job", e.json()));
+      if (batch.size() >= chunk) { inserted += send(d, batch, onReject); batch.clear(); }
+    }
+    if (!batch.isEmpty()) inserted += send(d, batch, onReject);
+    return inserted;
+  }
+
+  private long send(DaemonClient d, List<Map<String, Object>> batch, Consumer<JobService.Rejection> onReject) {
+    BatchReply r = d.call("enqueue_batch", Map.of("entries", batch, "chunk", chunk), BatchReply.class);
+    r.rejected().forEach(onReject);
+    return r.inserted();
+  }
+
+  // One parser per line, so a malformed line is reported and skipped instead of ending the stream.
+  private static final class NdjsonEntries implements Iterator<JobService.BatchEntry> {
+    private static final ObjectReader READER = new ObjectMapper().readerFor(Map.class);
+    private final BufferedReader in;
+    private final Consumer<JobService.Rejection> onBadLine;
+    private JobService.BatchEntry next;
+    private long lineNo = 0;
+
+    NdjsonEntries(BufferedReader in, Consumer<JobService.Rejection> onBadLine) { this.in = in; this.onBadLine = onBadLine; }
+
+    public boolean hasNext() {
+      try {
+        String line;
+        while (next == null && (line = in.readLine()) != null) {
+          lineNo++;
+          if (line.isBlank()) continue;
+          try {
+            Map<String, Object> m = READER.readValue(line);
+            next = new JobService.BatchEntry(lineNo, m);
+          } catch (JsonProcessingException e) {
+            onBadLine.accept(new JobService.Rejection(lineNo, null, "invalid JSON: " + e.getOriginalMessage()));
+          }
+        }
+        return next != null;
+      } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    public JobService.BatchEntry next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      JobService.BatchEntry e = next; next = null; return e;
+    }
+  }
 }
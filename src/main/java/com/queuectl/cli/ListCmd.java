@@ -1,12 +1,14 @@
 package com.queuectl.cli;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.queuectl.core.JobService;
 import com.queuectl.core.Clock;
-import com.queuectl.db.DataSourceFactory;
-import org.flywaydb.core.Flyway;
+import com.queuectl.db.Shards;
+import com.queuectl.model.Job;
 import picocli.CommandLine;
-import javax.sql.DataSource;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 
 @CommandLine.Command(name="list", description="List jobs by state")
 public class ListCmd implements Runnable {
@@ -14,10 +16,10 @@ public class ListCmd implements Runnable {
   @CommandLine.Option(names="--limit", defaultValue="20") int limit;
   @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
   public void run(){
-    DataSource ds = DataSourceFactory.sqlite(db);
-    Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
-    JobService js = new JobService(ds, (Clock)Instant::now);
-    var list = js.list(state, limit);
+    List<Job> list;
+    try (DaemonClient d = DaemonClient.connect(db)) {
+      list = d != null ? d.call("list", Map.of("state", state, "limit", limit), new TypeReference<>(){}) : new JobService(Shards.open(db), (Clock)Instant::now).list(state, limit);
+    }
     System.out.printf("🧾 Jobs (state=%s, limit=%d)%n", state, limit);
     for (var j: list) {
       System.out.printf("- id=%s attempts=%d prio=%d cmd=\"%s\" run_after=%s%n",
@@ -1,22 +1,51 @@
 package com.queuectl.cli;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.queuectl.core.JobService;
 import com.queuectl.core.Clock;
-import com.queuectl.db.DataSourceFactory;
-import org.flywaydb.core.Flyway;
+import com.queuectl.db.Shards;
+import com.queuectl.model.JobState;
 import picocli.CommandLine;
-import javax.sql.DataSource;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 
 @CommandLine.Command(name="logs", description="Show logs for a job")
 public class LogsCmd implements Runnable {
   @CommandLine.Parameters(paramLabel="JOB_ID") String jobId;
   @CommandLine.Option(names="--limit", defaultValue="50") int limit;
+  @CommandLine.Option(names={"-f","--follow"}, description="Print the whole log, then keep printing new output until the job finishes") boolean follow;
   @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
   public void run(){
-    DataSource ds = DataSourceFactory.sqlite(db);
-    Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
-    JobService js = new JobService(ds, (Clock)Instant::now);
-    js.logs(jobId, limit).forEach(System.out::println);
+    try (DaemonClient d = DaemonClient.connect(db)) {
+      JobService js = d == null ? new JobService(Shards.open(db), (Clock)Instant::now) : null;
+      if (!follow) {
+        List<String> lines = d != null ? d.call("logs", Map.of("id", jobId, "limit", limit), new TypeReference<>(){}) : js.logs(jobId, limit);
+        lines.forEach(System.out::println);
+        return;
+      }
+      follow(d, js);
+    }
+  }
+
+  private void follow(DaemonClient d, JobService js){
+    long last = 0;
+    try {
+      while (true) {
+        // state first: once it is terminal every log row of the run has already been committed
+        JobState st = d != null ? d.call("state", Map.of("id", jobId), JobState.class) : js.state(jobId).orElse(null);
+        if (st == null) { System.err.println("No job: " + jobId); System.exit(1); }
+        List<JobService.LogEntry> page = d != null ? d.call("logs_after", Map.of("id", jobId, "after", last, "limit", 500), new TypeReference<>(){}) : js.logsAfter(jobId, last, 500);
+        for (var e: page) {
+          var out = e.kind().equals("stderr") ? System.err : System.out;
+          out.print(e.content()); if (!e.content().endsWith("\n")) out.println();
+          last = e.id();
+        }
+        if (page.isEmpty()) {
+          if (st == JobState.completed || st == JobState.dead) return;
+          Thread.sleep(250);
+        }
+      }
+    } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
   }
 }
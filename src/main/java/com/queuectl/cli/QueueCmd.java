@@ -1,9 +1,19 @@
 package com.queuectl.cli;
 
+import com.queuectl.core.Backoff;
+import com.queuectl.core.CircuitBreaker;
+import com.queuectl.core.Clock;
+import com.queuectl.core.JobService;
+import com.queuectl.core.JournalJobStore;
+import com.queuectl.core.QueueService;
 import com.queuectl.db.DataSourceFactory;
+import com.queuectl.db.Shards;
 import org.flywaydb.core.Flyway;
 import picocli.CommandLine;
 import javax.sql.DataSource;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
 
 @CommandLine.Command(name="queue", description="Manage queues", subcommands={QueueCmd.Create.class, QueueCmd.Pause.class, QueueCmd.Resume.class})
 public class QueueCmd implements Runnable {
@@ -12,14 +22,44 @@ public class QueueCmd implements Runnable {
   @CommandLine.Command(name="create")
   public static class Create implements Runnable {
     @CommandLine.Parameters(paramLabel="NAME") String name;
-    @CommandLine.Option(names="--rate", defaultValue="50") int rate;
+    @CommandLine.Option(names="--rate", defaultValue="50", description="Jobs claimed per second; -1 for unlimited, while 0 lets one job through and then holds the queue") int rate;
     @CommandLine.Option(names="--concurrency", defaultValue="2") int conc;
+    @CommandLine.Option(names="--capture-head", defaultValue="0", description="Bytes kept from the start of each output stream") int head;
+    @CommandLine.Option(names="--capture-tail", defaultValue="4096", description="Bytes kept from the end of each output stream") int tail;
+    @CommandLine.Option(names="--executor", description="Persistent executor command; jobs are sent to a pool of --concurrency such processes as JSON lines") String executor;
+    @CommandLine.Option(names="--store", description="Job store: sqlite (durable), journal (durable append-only log next to the database) or memory (ephemeral, lost on daemon restart); applies when a daemon starts. Unchanged when omitted, sqlite for a new queue; a queue leaves the journal only once it holds none of its unfinished jobs") String store;
+    @CommandLine.Option(names="--shard", description="Pin the queue's jobs to this SQLite shard (0 is the main file) instead of hashing its name; unchanged when omitted. A pin that moves the queue needs the daemon stopped and no unfinished jobs left on the old shard") Integer shard;
+    @CommandLine.Option(names="--weight", defaultValue="1", description="Share of a shared worker pool (worker --shared) relative to the other queues") int weight;
+    @CommandLine.Option(names="--aging", defaultValue="300", description="Seconds of waiting that count as one priority level, so old low-priority jobs still run; 0 for strict priority") int aging;
+    @CommandLine.Option(names="--retry", description="Retry spacing: exponential (base^attempts s plus jitter), decorrelated (jittered, between base and 3x the last delay) or fixed (base s); default exponential on the backoff_base config") Backoff.Policy retry;
+    @CommandLine.Option(names="--retry-base", defaultValue="2", description="Seconds: exponent base, shortest decorrelated delay or the fixed delay") int retryBase;
+    @CommandLine.Option(names="--retry-cap", defaultValue="3600", description="Longest retry delay in seconds") int retryCap;
+    @CommandLine.Option(names="--breaker", defaultValue="0", description="Stop claiming while at least this share (0-1) of the jobs finished within --breaker-window failed; 0 disables the circuit breaker") double breakerRate;
+    @CommandLine.Option(names="--breaker-window", defaultValue="60", description="Seconds of job outcomes the failure rate is taken over") int breakerWindow;
+    @CommandLine.Option(names="--breaker-min-calls", defaultValue="20", description="Outcomes the window must hold before the breaker can open") int breakerMinCalls;
+    @CommandLine.Option(names="--breaker-open", defaultValue="30", description="Seconds an open breaker stops claiming before letting probe jobs through") int breakerOpen;
+    @CommandLine.Option(names="--breaker-probes", defaultValue="3", description="Probe jobs that must succeed to close the breaker again") int breakerProbes;
     @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
     public void run(){
-      DataSource ds = DataSourceFactory.sqlite(db);
-      Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
-      try (var c=ds.getConnection(); var ps=c.prepareStatement("INSERT INTO queues(name, rate_limit_per_sec, concurrency, paused) VALUES(?,?,?,0) ON CONFLICT(name) DO UPDATE SET rate_limit_per_sec=excluded.rate_limit_per_sec, concurrency=excluded.concurrency")){
-        ps.setString(1, name); ps.setInt(2, rate); ps.setInt(3, conc); ps.executeUpdate(); System.out.println("ok");
+      try (DaemonClient d = DaemonClient.connect(db)) {
+        if (d != null) {
+          Map<String,Object> args = new HashMap<>();
+          args.put("name", name); args.put("rate", rate); args.put("concurrency", conc); args.put("capture_head", head); args.put("capture_tail", tail);
+          args.put("executor", executor); args.put("store", store); args.put("shard", shard); args.put("weight", weight); args.put("aging", aging);
+          args.put("retry_policy", retry); args.put("retry_base", retryBase); args.put("retry_cap", retryCap);
+          args.put("breaker_failure_rate", breakerRate); args.put("breaker_window", breakerWindow); args.put("breaker_min_calls", breakerMinCalls);
+          args.put("breaker_open", breakerOpen); args.put("breaker_probes", breakerProbes);
+          d.call("queue_define", args, Void.class);
+        } else try (Shards shards = Shards.open(db)) {
+          JobService js = new JobService(shards, (Clock) Instant::now);
+          long left = shard == null || js.staysOnShard(name, shard) ? 0 : js.unfinishedInSqlite(name);
+          if (left > 0) throw new IllegalStateException("Queue " + name + " still has " + left + " unfinished jobs on shard " + js.shard(name) + "; its pin can change once they are done");
+          QueueService qs = new QueueService(shards.main());
+          qs.checkStoreChange(name, store, q -> JournalJobStore.unfinished(DataSourceFactory.journalDir(db), q));
+          qs.define(name, rate, conc, head, tail, executor, store, shard, weight, aging,
+            retry == null ? null : new Backoff(retry, retryBase, retryCap), new CircuitBreaker.Settings(breakerRate, breakerWindow, breakerMinCalls, breakerOpen, breakerProbes));
+        }
+        System.out.println("ok");
       } catch(Exception e){ System.err.println(e.getMessage()); System.exit(1); }
     }
   }
@@ -28,25 +68,26 @@ public class QueueCmd implements Runnable {
   public static class Pause implements Runnable {
     @CommandLine.Parameters(paramLabel="NAME") String name;
     @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
-    public void run(){
-      DataSource ds = DataSourceFactory.sqlite(db);
-      Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
-      try (var c=ds.getConnection(); var ps=c.prepareStatement("UPDATE queues SET paused=1 WHERE name=?")){
-        ps.setString(1, name); ps.executeUpdate(); System.out.println("paused");
-      } catch(Exception e){ System.err.println(e.getMessage()); System.exit(1); }
-    }
+    public void run(){ setPaused(db, name, true); System.out.println("paused"); }
   }
 
   @CommandLine.Command(name="resume")
   public static class Resume implements Runnable {
     @CommandLine.Parameters(paramLabel="NAME") String name;
     @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
-    public void run(){
-      DataSource ds = DataSourceFactory.sqlite(db);
-      Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
-      try (var c=ds.getConnection(); var ps=c.prepareStatement("UPDATE queues SET paused=0 WHERE name=?")){
-        ps.setString(1, name); ps.executeUpdate(); System.out.println("resumed");
-      } catch(Exception e){ System.err.println(e.getMessage()); System.exit(1); }
-    }
+    public void run(){ setPaused(db, name, false); System.out.println("resumed"); }
+  }
+
+  private static void setPaused(String db, String name, boolean paused){
+    try (DaemonClient d = DaemonClient.connect(db)) {
+      if (d != null) d.call("queue_pause", Map.of("name", name, "paused", paused), Void.class);
+      else new QueueService(migrated(db)).setPaused(name, paused);
+    } catch(Exception e){ System.err.println(e.getMessage()); System.exit(1); }
+  }
+
+  private static DataSource migrated(String db){
+    DataSource ds = DataSourceFactory.sqlite(db);
+    Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
+    return ds;
   }
 }
@@ -0,0 +1,29 @@
+package com.queuectl.cli;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.queuectl.core.JobService;
+import com.queuectl.core.Clock;
+import com.queuectl.db.Shards;
+import picocli.CommandLine;
+import java.time.Instant;
+import java.util.Map;
+
+@CommandLine.Command(name="stats", description="Show per-queue counts by state")
+public class StatsCmd implements Runnable {
+  @CommandLine.Option(names="--rebuild", description="Recompute counters from the jobs table") boolean rebuild;
+  @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
+  public void run(){
+    Map<String,Map<String,Long>> stats;
+    try (DaemonClient d = DaemonClient.connect(db)) {
+      JobService js = d == null ? new JobService(Shards.open(db), (Clock)Instant::now) : null;
+      if (rebuild) {
+        int drifted = d != null ? d.call("rebuild_stats", Map.of(), Integer.class) : js.rebuildStats();
+        System.out.printf("🔧 Rebuilt queue stats (%d counter%s had drifted)%n", drifted, drifted==1? "": "s");
+      }
+      stats = d != null ? d.call("stats", Map.of(), new TypeReference<>(){}) : js.countsByQueue();
+    }
+    System.out.println("📊 Queue stats:");
+    stats.forEach((q, m) -> System.out.printf("- queue=%s pending=%d processing=%d completed=%d failed=%d dead=%d%n",
+      q, m.get("pending"), m.get("processing"), m.get("completed"), m.get("failed"), m.get("dead")));
+  }
+}
@@ -10,6 +10,13 @@ public class WorkerCmd implements Runnable {
   @CommandLine.Option(names="--queues", description="queue:count[,queue2:count2]", defaultValue="default:2") String queuesArg;
   @CommandLine.Option(names="--db", defaultValue="queuectl.db") String db;
   @CommandLine.Option(names="--dashboard", defaultValue="false") boolean dashboard;
+  @CommandLine.Option(names="--prefetch", defaultValue="4", description="jobs each worker leases per claim") int prefetch;
+  @CommandLine.Option(names="--write-behind", defaultValue="false", description="batch completions, failures and logs through one group-commit writer") boolean writeBehind;
+  @CommandLine.Option(names="--virtual-threads", defaultValue="false", description="run workers, output collectors and background loops on virtual threads") boolean virtualThreads;
+  @CommandLine.Option(names="--autoscale", defaultValue="false", description="grow each queue's workers from its --queues count up to queues.concurrency with the backlog") boolean autoscale;
+  @CommandLine.Option(names="--scale-cooldown", defaultValue="30", description="seconds a lower worker target must hold before workers are stopped") int scaleCooldown;
+  @CommandLine.Option(names="--max-workers", defaultValue="16", description="with --autoscale, the most workers for a queue without a concurrency limit") int maxWorkers;
+  @CommandLine.Option(names="--shared", defaultValue="0", description="run this many workers shared by all --queues (their counts are ignored), giving each queue run time in proportion to queues.weight") int shared;
 
   public void run(){
     if (!start) {
@@ -21,6 +28,10 @@ public class WorkerCmd implements Runnable {
       String[] kv = part.split(":");
       q.put(kv[0], Integer.parseInt(kv[1]));
     }
-    QueueDaemon.start(db, q, dashboard);
+    if (shared > 0 && autoscale) {
+      System.err.println("❌ --autoscale sizes per-queue workers; it cannot be combined with --shared");
+      System.exit(1);
+    }
+    QueueDaemon.start(db, q, dashboard, new QueueDaemon.Options(prefetch, writeBehind, virtualThreads, autoscale, scaleCooldown, maxWorkers, shared));
   }
 }
@@ -1,15 +1,45 @@
 package com.queuectl.core;
 
+import java.util.SplittableRandom;
 import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Delay before a failed job's next attempt. exponential: base^attempts seconds, at most capSeconds,
+ * plus up to base of jitter; fixed: base seconds every time; decorrelated: each delay drawn between
+ * base and three times the one before, up to capSeconds, replayed from a seed per job so no state is
+ * kept between attempts.
+ */
 public final class Backoff {
+  public enum Policy { exponential, decorrelated, fixed }
+
+  private final Policy policy;
   private final int base;
   private final int capSeconds;
-  public Backoff(int base, int capSeconds) { this.base = Math.max(2, base); this.capSeconds = Math.max(10, capSeconds); }
-  public int delaySeconds(int attempts) {
-    long d=1; for(int i=0;i<attempts;i++) d*=base;
-    d = Math.min(d, capSeconds);
-    int jitter = ThreadLocalRandom.current().nextInt(0, base);
-    return (int)Math.min(Integer.MAX_VALUE, d + jitter);
+  public Backoff(int base, int capSeconds) { this(Policy.exponential, base, capSeconds); }
+  public Backoff(Policy policy, int base, int capSeconds) {
+    this.policy = policy;
+    this.base = switch (policy) { case exponential -> Math.max(2, base); case decorrelated -> Math.max(1, base); case fixed -> Math.max(0, base); };
+    this.capSeconds = Math.max(10, capSeconds);
+  }
+
+  public Policy policy() { return policy; }
+  public int base() { return base; }
+  public int capSeconds() { return capSeconds; }
+
+  public int delaySeconds(int attempts, String jobId) {
+    long d = switch (policy) {
+      case fixed -> Math.min(base, capSeconds);
+      case exponential -> {
+        long e=1; for(int i=0;i<attempts && e<capSeconds;i++) e*=base;
+        yield Math.min(e, capSeconds) + ThreadLocalRandom.current().nextInt(0, base);
+      }
+      case decorrelated -> {
+        SplittableRandom r = new SplittableRandom(jobId.hashCode());
+        long e = base;
+        for (int i=0;i<attempts;i++) e = Math.min(capSeconds, r.nextLong(base, 3*e + 1));
+        yield e;
+      }
+    };
+    return (int)Math.min(Integer.MAX_VALUE, d);
   }
 }
@@ -0,0 +1,163 @@
+package com.queuectl.core;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-queue circuit breaker on the failure rate of recent jobs. While closed, job outcomes land in a
+ * sliding window of ten buckets; once the window holds minCalls outcomes and the failed share reaches
+ * failureRate, the breaker opens and workers stop claiming from the queue for openSec. It then
+ * half-opens and lets up to probes jobs through: a failed probe re-opens it, probes successful ones
+ * close it. While half-open only jobs admitted as probes count, and a probe round that goes openSec
+ * without an outcome starts over, so probes lost to a stopped worker cannot hold the queue shut.
+ * A failureRate of 0 turns it off.
+ */
+public final class CircuitBreaker {
+  public enum State { closed, open, half_open }
+
+  public record Settings(double failureRate, int windowSec, int minCalls, int openSec, int probes) {
+    public static final Settings OFF = new Settings(0, 60, 20, 30, 3);
+    public Settings {
+      failureRate = Math.max(0, Math.min(1, failureRate));
+      windowSec = Math.max(1, windowSec); minCalls = Math.max(1, minCalls); openSec = Math.max(1, openSec); probes = Math.max(1, probes);
+    }
+  }
+
+  // granted claims; probe: the probe round they were admitted in, 0 when not admitted as probes
+  public record Permit(int granted, long probe) {}
+
+  public record Snapshot(State state, double failureRate, long calls, long retryAtMillis, long opened) {}
+
+  private static final int BUCKETS = 10;
+
+  private final Runnable changed;
+  private final ReentrantLock lock = new ReentrantLock(); // not synchronized: workers may be virtual threads
+  private final long[] ok = new long[BUCKETS], failed = new long[BUCKETS], epoch = new long[BUCKETS];
+  private Settings settings = Settings.OFF;
+  private State state = State.closed;
+  private long openUntil;
+  private long round, roundUntil; // half-open: the current probe round and when it is given up on
+  private int probesLeft, probeSuccesses;
+  private long opened;
+
+  // changed: wakes the queue's parked workers when claiming may resume
+  CircuitBreaker(Runnable changed){ this.changed = changed; }
+
+  void configure(Settings s){
+    boolean resumed;
+    lock.lock();
+    try {
+      if (s.equals(settings)) return;
+      resumed = s.failureRate() == 0 && state != State.closed;
+      if (s.windowSec() != settings.windowSec() || resumed) reset();
+      if (resumed) state = State.closed;
+      settings = s;
+    } finally { lock.unlock(); }
+    if (resumed) changed.run();
+  }
+
+  // The rest of the open period, or 0 when claiming may go ahead.
+  public long blockedMillis(){
+    lock.lock();
+    try {
+      long now = System.currentTimeMillis();
+      halfOpenIfDue(now);
+      return state == State.open ? openUntil - now : 0;
+    } finally { lock.unlock(); }
+  }
+
+  // Up to wanted claims; half-open, only the probes not yet out, and none once they all are (closing
+  // signals the queue). Claims not made, and probes that end without an outcome, go back via release().
+  public Permit acquire(int wanted){
+    lock.lock();
+    try {
+      halfOpenIfDue(System.currentTimeMillis());
+      return switch (state) {
+        case closed -> new Permit(wanted, 0);
+        case open -> new Permit(0, 0);
+        case half_open -> { int n = Math.min(wanted, probesLeft); probesLeft -= n; yield new Permit(n, round); }
+      };
+    } finally { lock.unlock(); }
+  }
+
+  public void release(long probe, int n){
+    if (n <= 0 || probe == 0) return;
+    lock.lock();
+    try { if (state == State.half_open && probe == round) probesLeft = Math.min(settings.probes(), probesLeft + n); }
+    finally { lock.unlock(); }
+  }
+
+  // Outcome of a finished job, probe as in its Permit. Ignored while open, and while half-open unless the
+  // job is a probe of the current round: the others were claimed before the breaker opened.
+  public void record(long probe, boolean success){
+    boolean closedAgain = false;
+    lock.lock();
+    try {
+      if (settings.failureRate() == 0) return;
+      long now = System.currentTimeMillis();
+      switch (state) {
+        case closed -> {
+          int b = bucket(now);
+          if (success) ok[b]++; else failed[b]++;
+          long[] w = window(now);
+          if (!success && w[0] >= settings.minCalls() && w[1] >= settings.failureRate() * w[0]) open(now);
+        }
+        case half_open -> {
+          if (probe != round) break;
+          if (!success) open(now);
+          else if (++probeSuccesses >= settings.probes()) { state = State.closed; reset(); closedAgain = true; }
+          else roundUntil = now + settings.openSec() * 1000L;
+        }
+        case open -> {}
+      }
+    } finally { lock.unlock(); }
+    if (closedAgain) changed.run();
+  }
+
+  public boolean enabled(){
+    lock.lock();
+    try { return settings.failureRate() > 0; } finally { lock.unlock(); }
+  }
+
+  public Snapshot snapshot(){
+    lock.lock();
+    try {
+      long now = System.currentTimeMillis();
+      halfOpenIfDue(now);
+      long[] w = window(now);
+      return new Snapshot(state, w[0] == 0 ? 0 : (double) w[1] / w[0], w[0], state == State.open ? openUntil : 0, opened);
+    } finally { lock.unlock(); }
+  }
+
+  private void open(long now){
+    state = State.open; openUntil = now + settings.openSec() * 1000L; opened++;
+    reset();
+  }
+
+  private void halfOpenIfDue(long now){
+    if (state == State.open && now >= openUntil) state = State.half_open;
+    else if (state != State.half_open || now < roundUntil) return;
+    // a new round: outcomes of probes still out from the last one no longer count
+    round++; probesLeft = settings.probes(); probeSuccesses = 0; roundUntil = now + settings.openSec() * 1000L;
+  }
+
+  private long bucketMillis(){ return Math.max(1, settings.windowSec() * 1000L / BUCKETS); }
+
+  // Bucket for now, cleared first if it last held an older slice of time.
+  private int bucket(long now){
+    long e = now / bucketMillis();
+    int b = (int) (e % BUCKETS);
+    if (epoch[b] != e) { epoch[b] = e; ok[b] = 0; failed[b] = 0; }
+    return b;
+  }
+
+  // {outcomes, failures} in the buckets still inside the window
+  private long[] window(long now){
+    long oldest = now / bucketMillis() - BUCKETS;
+    long[] w = new long[2];
+    for (int i = 0; i < BUCKETS; i++) if (epoch[i] > oldest) { w[0] += ok[i] + failed[i]; w[1] += failed[i]; }
+    return w;
+  }
+
+  private void reset(){ Arrays.fill(ok, 0); Arrays.fill(failed, 0); Arrays.fill(epoch, 0); }
+}
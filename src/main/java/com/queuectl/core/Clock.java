@@ -1,3 +1,6 @@
 package com.queuectl.core;
 import java.time.Instant;
-public interface Clock { Instant now(); }
+public interface Clock {
+  Instant now();
+  default long millis(){ return now().toEpochMilli(); }
+}
@@ -1,31 +1,220 @@
 package com.queuectl.core;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public final class CommandExecutor {
-  public record Result(int exitCode, String stdout, String stderr, boolean timedOut) {}
+  // Bytes kept per stream: the first headBytes and the last tailBytes; everything between is only counted.
+  public record Capture(int headBytes, int tailBytes) {
+    public static final Capture DEFAULT = new Capture(0, 4096);
+  }
+  public record Output(String text, long bytes, long lines) {}
+  public record OutputStats(long stdoutBytes, long stdoutLines, long stderrBytes, long stderrLines) {}
+  // A slice of live output; kind is "stdout" or "stderr".
+  public record Chunk(String kind, String text) {}
+  public record Result(int exitCode, Output stdout, Output stderr, boolean timedOut) {
+    public OutputStats stats() { return new OutputStats(stdout.bytes(), stdout.lines(), stderr.bytes(), stderr.lines()); }
+  }
+
+  static final long FLUSH_MILLIS = 250;
+  private static final int MAX_PENDING = 64 * 1024; // per stream and flush; output beyond it is counted and dropped from the live log
+
+  private static final String HANDLER_SCHEME = "java:";
+
+  private final ThreadFactory collectors;
+  private final ExecutorService handlerPool;
+  private final Map<String, JobHandler> handlers = new HashMap<>();
+  private final LatencyHistogram spawnTime; // fork+exec of /bin/sh, the fixed cost a persistent executor avoids
+
+  public CommandExecutor(){ this(Thread.ofPlatform().factory()); }
+  public CommandExecutor(ThreadFactory collectors){
+    this(collectors, Executors.newCachedThreadPool(Thread.ofPlatform().daemon().name("handler-", 0).factory()));
+  }
+  public CommandExecutor(ThreadFactory collectors, ExecutorService handlerPool){ this(collectors, handlerPool, new LatencyHistogram()); }
+  public CommandExecutor(ThreadFactory collectors, ExecutorService handlerPool, LatencyHistogram spawnTime){
+    this.collectors = collectors; this.handlerPool = handlerPool; this.spawnTime = spawnTime;
+    for (JobHandler h: ServiceLoader.load(JobHandler.class)) handlers.put(h.name(), h);
+  }
+
+  public Result run(String cmd, int timeoutSec) throws Exception { return run(cmd, timeoutSec, Capture.DEFAULT); }
 
-  public Result run(String cmd, int timeoutSec) throws Exception {
+  public Result run(String cmd, int timeoutSec, Capture capture) throws Exception { return run(cmd, timeoutSec, capture, null); }
+
+  // With a sink, output is also handed over in batches every FLUSH_MILLIS while the job runs.
+  public Result run(String cmd, int timeoutSec, Capture capture, Consumer<List<Chunk>> sink) throws Exception {
+    if (cmd.startsWith(HANDLER_SCHEME)) return runHandler(cmd.substring(HANDLER_SCHEME.length()).trim(), timeoutSec, capture, sink);
     ProcessBuilder pb = new ProcessBuilder("/bin/sh","-c", cmd);
+    long start = System.nanoTime();
     Process p = pb.start();
-    StreamCollector out = new StreamCollector(p.getInputStream());
-    StreamCollector err = new StreamCollector(p.getErrorStream());
-    out.start(); err.start();
-    boolean done = p.waitFor(timeoutSec, TimeUnit.SECONDS);
-    if(!done){
-      p.destroyForcibly(); out.join(); err.join();
-      return new Result(124, out.getCollected(2048), err.getCollected(2048), true);
-    }
-    int code = p.exitValue(); out.join(); err.join();
-    return new Result(code, out.getCollected(4096), err.getCollected(4096), false);
-  }
-
-  static final class StreamCollector extends Thread {
-    private final BufferedReader br; private final StringBuilder sb=new StringBuilder();
-    StreamCollector(java.io.InputStream is){ this.br = new BufferedReader(new InputStreamReader(is)); }
-    public void run(){ try{ String line; while((line=br.readLine())!=null){ sb.append(line).append('\n'); } } catch(Exception ignored){} }
-    String getCollected(int max){ return sb.length()>max? sb.substring(sb.length()-max):sb.toString(); }
+    spawnTime.record(System.nanoTime() - start);
+    StreamCollector out = new StreamCollector(capture, sink != null);
+    StreamCollector err = new StreamCollector(capture, sink != null);
+    Thread outT = collectors.newThread(out.reader(p.getInputStream())), errT = collectors.newThread(err.reader(p.getErrorStream()));
+    outT.start(); errT.start();
+    // onExit() parks instead of blocking in waitFor, so a virtual worker thread does not pin its carrier
+    boolean timedOut = !await(p.onExit(), timeoutSec, sink, out, err);
+    if (timedOut) p.destroyForcibly();
+    outT.join(); errT.join();
+    flush(sink, out, err, true);
+    return new Result(timedOut ? 124 : p.exitValue(), out.output(), err.output(), timedOut);
+  }
+
+  // "java:<name> [args]": runs the registered JobHandler on the handler pool, writing into the same capture buffers.
+  private Result runHandler(String spec, int timeoutSec, Capture capture, Consumer<List<Chunk>> sink) throws Exception {
+    int sp = spec.indexOf(' ');
+    String name = sp < 0 ? spec : spec.substring(0, sp);
+    StreamCollector out = new StreamCollector(capture, sink != null);
+    StreamCollector err = new StreamCollector(capture, sink != null);
+    PrintStream o = new PrintStream(out.writer(), true, StandardCharsets.UTF_8), e = new PrintStream(err.writer(), true, StandardCharsets.UTF_8);
+    JobHandler h = handlers.get(name);
+    if (h == null) {
+      e.println("no JobHandler registered as " + name);
+      flush(sink, out, err, true);
+      return new Result(127, out.output(), err.output(), false);
+    }
+    var ctx = new JobHandler.Context(sp < 0 ? "" : spec.substring(sp + 1).trim(), o, e);
+    Future<Integer> f = handlerPool.submit(() -> h.run(ctx));
+    int code;
+    boolean timedOut = !await(f, timeoutSec, sink, out, err);
+    if (timedOut) { f.cancel(true); code = 124; }
+    else {
+      try { code = f.get(); }
+      catch (ExecutionException ex) { ex.getCause().printStackTrace(e); code = 1; }
+    }
+    o.flush(); e.flush();
+    flush(sink, out, err, true);
+    return new Result(code, out.output(), err.output(), timedOut);
+  }
+
+  // Waits for done up to the timeout, flushing live output meanwhile; false when the timeout elapsed first.
+  private static boolean await(Future<?> done, int timeoutSec, Consumer<List<Chunk>> sink, StreamCollector out, StreamCollector err) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSec);
+    while (true) {
+      long left = deadline - System.nanoTime();
+      if (left <= 0) return false;
+      try { done.get(sink == null ? left : Math.min(left, TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS)), TimeUnit.NANOSECONDS); return true; }
+      catch (TimeoutException e){ flush(sink, out, err, false); }
+      catch (ExecutionException e){ return true; }
+    }
+  }
+
+  static void flush(Consumer<List<Chunk>> sink, StreamCollector out, StreamCollector err, boolean last){
+    if (sink == null) return;
+    List<Chunk> chunks = new ArrayList<>(2);
+    String o = out.drain(last), e = err.drain(last);
+    if (o != null) chunks.add(new Chunk("stdout", o));
+    if (e != null) chunks.add(new Chunk("stderr", e));
+    if (chunks.isEmpty()) return;
+    try { sink.accept(chunks); } catch (RuntimeException ignored) {} // a lost live chunk must not abandon the running process
+  }
+
+  // Fixed memory per stream whatever the job prints: a head buffer, a tail ring and a reused read buffer.
+  static final class StreamCollector {
+    private final byte[] head, tail;
+    private int headLen, tailPos;
+    private long tailTotal, bytes, lines;
+    private byte last = '\n';
+    // live output not yet drained
+    private final byte[] pending;
+    private int pendingLen;
+    private long dropped;
+    // writers (a pipe reader, or any handler thread) and the draining waiter take turns
+    private final ReentrantLock lock = new ReentrantLock();
+
+    StreamCollector(Capture capture, boolean live){
+      this.head = new byte[Math.max(0, capture.headBytes())]; this.tail = new byte[Math.max(0, capture.tailBytes())];
+      this.pending = live ? new byte[MAX_PENDING] : null;
+    }
+
+    Runnable reader(InputStream in){
+      return () -> {
+        byte[] buf = new byte[8192];
+        try (in) { int n; while ((n = in.read(buf)) > 0) accept(buf, 0, n); } catch (IOException ignored) {}
+      };
+    }
+
+    OutputStream writer(){
+      return new OutputStream() {
+        @Override public void write(int b){ accept(new byte[]{(byte)b}, 0, 1); }
+        @Override public void write(byte[] b, int off, int len){ if (len > 0) accept(b, off, len); }
+      };
+    }
+
+    void accept(byte[] b, int off, int len){
+      lock.lock();
+      try {
+        bytes += len;
+        for (int i=off;i<off+len;i++) if (b[i]=='\n') lines++;
+        last = b[off+len-1];
+        if (pending != null) {
+          int k = Math.min(len, pending.length - pendingLen);
+          System.arraycopy(b, off, pending, pendingLen, k); pendingLen += k; dropped += len - k;
+        }
+        if (headLen < head.length){
+          int k = Math.min(len, head.length - headLen);
+          System.arraycopy(b, off, head, headLen, k); headLen += k; off += k; len -= k;
+        }
+        tailTotal += len;
+        if (len == 0 || tail.length == 0) return;
+        if (len >= tail.length){ System.arraycopy(b, off + len - tail.length, tail, 0, tail.length); tailPos = 0; return; }
+        int first = Math.min(len, tail.length - tailPos);
+        System.arraycopy(b, off, tail, tailPos, first);
+        System.arraycopy(b, off + first, tail, 0, len - first);
+        tailPos = (tailPos + len) % tail.length;
+      } finally { lock.unlock(); }
+    }
+
+    // Complete lines buffered since the last drain (everything when last or the buffer is full), or null.
+    String drain(boolean last){
+      lock.lock();
+      try {
+        int n = pendingLen;
+        if (!last && n < pending.length) { while (n > 0 && pending[n-1] != '\n') n--; }
+        if (n == 0 && dropped == 0) return null;
+        String text = new String(pending, 0, n, StandardCharsets.UTF_8);
+        if (dropped > 0) { text += "...[" + dropped + " bytes not streamed]...\n"; dropped = 0; }
+        System.arraycopy(pending, n, pending, 0, pendingLen - n); pendingLen -= n;
+        return text;
+      } finally { lock.unlock(); }
+    }
+
+    Output output(){
+      lock.lock();
+      try { return snapshot(); } finally { lock.unlock(); }
+    }
+
+    private Output snapshot(){
+      int tailLen = (int)Math.min(tailTotal, tail.length);
+      byte[] t = new byte[tailLen];
+      if (tailTotal > tail.length){
+        System.arraycopy(tail, tailPos, t, 0, tail.length - tailPos);
+        System.arraycopy(tail, 0, t, tail.length - tailPos, tailPos);
+      } else {
+        System.arraycopy(tail, 0, t, 0, tailLen);
+      }
+      long skipped = tailTotal - tailLen;
+      String h = new String(head, 0, headLen, StandardCharsets.UTF_8);
+      String text = skipped > 0 && headLen > 0
+        ? h + "\n...[" + skipped + " bytes skipped]...\n" + new String(t, StandardCharsets.UTF_8)
+        : h + new String(t, StandardCharsets.UTF_8);
+      return new Output(text, bytes, last == '\n' ? lines : lines + 1);
+    }
   }
 }
@@ -0,0 +1,42 @@
+package com.queuectl.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Counting semaphore whose limit can change while permits are held; a limit of zero or less means unlimited. */
+public final class ConcurrencyLimit {
+  private final ReentrantLock lock = new ReentrantLock(); // not synchronized: virtual workers park here
+  private final Condition freed = lock.newCondition();
+  private int limit, inUse;
+
+  public ConcurrencyLimit(int limit){ this.limit = limit; }
+
+  // Returns false when maxMillis elapsed without a free slot.
+  public boolean acquire(long maxMillis) throws InterruptedException {
+    long left = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    lock.lock();
+    try {
+      while (limit > 0 && inUse >= limit) {
+        if (left <= 0) return false;
+        left = freed.awaitNanos(left);
+      }
+      inUse++;
+      return true;
+    } finally { lock.unlock(); }
+  }
+
+  public void release(){
+    lock.lock();
+    try { inUse--; freed.signal(); } finally { lock.unlock(); }
+  }
+
+  // Lowering the limit lets running holders finish; new acquires wait until inUse drops below it.
+  public void setLimit(int limit){
+    lock.lock();
+    try { this.limit = limit; freed.signalAll(); } finally { lock.unlock(); }
+  }
+
+  public int limit(){ lock.lock(); try { return limit; } finally { lock.unlock(); } }
+  public int inUse(){ lock.lock(); try { return inUse; } finally { lock.unlock(); } }
+}
@@ -0,0 +1,27 @@
+package com.queuectl.core;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+
+// Key/value settings in the config table.
+public final class ConfigService {
+  private final DataSource ds;
+  public ConfigService(DataSource ds){ this.ds=ds; }
+
+  public Optional<String> get(String key){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT value FROM config WHERE key=?")) {
+      ps.setString(1, key);
+      try (ResultSet rs = ps.executeQuery()){ return rs.next() ? Optional.ofNullable(rs.getString(1)) : Optional.empty(); }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  public void set(String key, String value){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("INSERT INTO config(key,value) VALUES(?,?) ON CONFLICT(key) DO UPDATE SET value=excluded.value")) {
+      ps.setString(1, key); ps.setString(2, value); ps.executeUpdate();
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+}
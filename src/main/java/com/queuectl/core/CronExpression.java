@@ -0,0 +1,98 @@
+package com.queuectl.core;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Five-field cron expression (minute hour day-of-month month day-of-week), evaluated in UTC.
+ * Supports *, lists, ranges, steps, JAN-DEC / SUN-SAT names and the @hourly-style macros.
+ * As in Vixie cron, when both day fields are restricted a day matching either one fires.
+ */
+public final class CronExpression {
+  private static final Map<String,String> MACROS = Map.of(
+    "@yearly", "0 0 1 1 *", "@annually", "0 0 1 1 *", "@monthly", "0 0 1 * *",
+    "@weekly", "0 0 * * 0", "@daily", "0 0 * * *", "@midnight", "0 0 * * *", "@hourly", "0 * * * *");
+  private static final String[] MONTHS = {"JAN","FEB","MAR","APR","MAY","JUN","JUL","AUG","SEP","OCT","NOV","DEC"};
+  private static final String[] DAYS = {"SUN","MON","TUE","WED","THU","FRI","SAT"};
+
+  private final String expr;
+  private final long minutes, hours, doms, months, dows; // bit i set = value i allowed
+  private final boolean domAny, dowAny;
+
+  private CronExpression(String expr, String[] f) {
+    this.expr = expr;
+    this.minutes = field(f[0], 0, 59, null);
+    this.hours = field(f[1], 0, 23, null);
+    this.doms = field(f[2], 1, 31, null);
+    this.months = field(f[3], 1, 12, MONTHS);
+    long d = field(f[4], 0, 7, DAYS);
+    this.dows = (d & 1L << 7) != 0 ? (d | 1L) & ~(1L << 7) : d; // 7 is Sunday too
+    this.domAny = f[2].equals("*") || f[2].equals("?");
+    this.dowAny = f[4].equals("*") || f[4].equals("?");
+  }
+
+  public static CronExpression parse(String expr) {
+    if (expr == null) throw new IllegalArgumentException("cron expression required");
+    String e = expr.trim();
+    String[] f = MACROS.getOrDefault(e.toLowerCase(Locale.ROOT), e).split("\\s+");
+    if (f.length != 5) throw new IllegalArgumentException("cron needs 5 fields: " + expr);
+    return new CronExpression(expr, f);
+  }
+
+  // First fire time strictly after the given instant, in epoch millis (always on a minute boundary).
+  public long next(long afterMillis) {
+    LocalDateTime t = LocalDateTime.ofEpochSecond(Math.floorDiv(afterMillis, 1000), 0, ZoneOffset.UTC)
+      .truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+    int limit = t.getYear() + 5;
+    while (t.getYear() <= limit) {
+      if (!has(months, t.getMonthValue())) { t = t.plusMonths(1).withDayOfMonth(1).withHour(0).withMinute(0); continue; }
+      if (!dayMatches(t)) { t = t.plusDays(1).withHour(0).withMinute(0); continue; }
+      if (!has(hours, t.getHour())) { t = t.plusHours(1).withMinute(0); continue; }
+      if (!has(minutes, t.getMinute())) { t = t.plusMinutes(1); continue; }
+      return t.toEpochSecond(ZoneOffset.UTC) * 1000;
+    }
+    throw new IllegalArgumentException("cron never fires: " + expr);
+  }
+
+  @Override public String toString() { return expr; }
+
+  private boolean dayMatches(LocalDateTime t) {
+    boolean dom = has(doms, t.getDayOfMonth());
+    boolean dow = has(dows, t.getDayOfWeek().getValue() % 7);
+    if (domAny) return dow;
+    if (dowAny) return dom;
+    return dom || dow;
+  }
+
+  private static boolean has(long bits, int v) { return (bits & (1L << v)) != 0; }
+
+  private static long field(String spec, int min, int max, String[] names) {
+    long bits = 0;
+    for (String part : spec.split(",")) {
+      String range = part; int step = 1;
+      int slash = part.indexOf('/');
+      if (slash >= 0) { range = part.substring(0, slash); step = Integer.parseInt(part.substring(slash + 1)); }
+      int lo, hi;
+      if (range.equals("*") || range.equals("?")) { lo = min; hi = max; }
+      else {
+        int dash = range.indexOf('-');
+        lo = value(dash >= 0 ? range.substring(0, dash) : range, names, min);
+        hi = dash >= 0 ? value(range.substring(dash + 1), names, min) : (slash >= 0 ? max : lo);
+      }
+      if (lo < min || hi > max || lo > hi || step < 1) throw new IllegalArgumentException("bad cron field: " + spec);
+      for (int v = lo; v <= hi; v += step) bits |= 1L << v;
+    }
+    return bits;
+  }
+
+  private static int value(String s, String[] names, int min) {
+    if (names != null) {
+      for (int i = 0; i < names.length; i++) if (names[i].equalsIgnoreCase(s)) return i + min;
+    }
+    try { return Integer.parseInt(s); }
+    catch (NumberFormatException e) { throw new IllegalArgumentException("bad cron value: " + s); }
+  }
+}
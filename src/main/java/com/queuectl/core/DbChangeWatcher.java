@@ -0,0 +1,80 @@
+package com.queuectl.core;
+
+import com.queuectl.db.DataSourceFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Picks up writes made by other processes (CLI enqueues, DLQ retries) for in-process workers.
+ * PRAGMA data_version only moves when another connection commits, so an idle database costs one
+ * pragma per tick; on change, each watched queue's pending count and earliest due and next scheduled
+ * run_after are re-read off queue_stats and the index: more pending jobs or a new earliest due one, while
+ * any is due, signal the queue, and a scheduled one goes to DueWakeups. A rise in pending jobs or a new
+ * earliest due one (say, a dependent freed by its parent) is also reported to pendingGrew, so a queue served
+ * from another store knows to look in SQLite.
+ */
+public final class DbChangeWatcher implements Runnable {
+  private final DataSource ds;
+  private final Clock clock;
+  private final WorkNotifier notifier;
+  private final DueWakeups wakeups;
+  private final Consumer<String> pendingGrew;
+  private final long intervalMillis;
+  private final Map<String,String> lastDue = new HashMap<>();
+  private final Map<String,Long> lastPending = new HashMap<>();
+
+  public DbChangeWatcher(DataSource ds, Clock clock, WorkNotifier notifier, DueWakeups wakeups, Consumer<String> pendingGrew, long intervalMillis){
+    this.ds=ds; this.clock=clock; this.notifier=notifier; this.wakeups=wakeups; this.pendingGrew=pendingGrew; this.intervalMillis=Math.max(10, intervalMillis);
+  }
+
+  public void run(){
+    while (true) {
+      // holds one connection for life, outside the pool: data_version is only meaningful per connection
+      try (Connection c = DataSourceFactory.unpooled(ds); Statement st = c.createStatement();
+           PreparedStatement pending = c.prepareStatement("SELECT queue, n FROM queue_stats WHERE state='pending'");
+           PreparedStatement due = c.prepareStatement("SELECT MIN(run_after) FROM jobs WHERE state='pending' AND queue=? AND unmet_deps=0 AND run_after<=?");
+           PreparedStatement next = c.prepareStatement("SELECT MIN(run_after) FROM jobs WHERE state='pending' AND queue=? AND unmet_deps=0 AND run_after>?")) {
+        long seen = -1;
+        while (true) {
+          long v;
+          try (ResultSet rs = st.executeQuery("PRAGMA data_version")) { rs.next(); v = rs.getLong(1); }
+          if (v != seen) { seen = v; check(pending, due, next); }
+          Thread.sleep(intervalMillis);
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        try { Thread.sleep(500); } catch (InterruptedException ie) { return; }
+      }
+    }
+  }
+
+  private void check(PreparedStatement pending, PreparedStatement due, PreparedStatement next) throws SQLException {
+    long now = clock.millis();
+    Map<String,Long> counts = new HashMap<>();
+    try (ResultSet rs = pending.executeQuery()) { while (rs.next()) counts.put(rs.getString(1), rs.getLong(2)); }
+    for (String q: notifier.queues()) {
+      due.setString(1, q); due.setLong(2, now);
+      String d;
+      try (ResultSet rs = due.executeQuery()) { rs.next(); d = rs.getString(1); }
+      long n = counts.getOrDefault(q, 0L);
+      Long was = lastPending.put(q, n);
+      // a job enqueued behind one that is already due leaves the earliest due time as it was
+      boolean grew = was == null || n > was;
+      boolean newDue = !Objects.equals(d, lastDue.put(q, d)) && d != null;
+      if (grew && n > 0 || newDue) pendingGrew.accept(q);
+      if ((newDue || grew) && d != null) notifier.signal(q);
+      next.setString(1, q); next.setLong(2, now);
+      try (ResultSet rs = next.executeQuery()) { rs.next(); long t = rs.getLong(1); if (!rs.wasNull()) wakeups.schedule(q, t); }
+    }
+  }
+}
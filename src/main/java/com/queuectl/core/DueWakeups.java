@@ -0,0 +1,73 @@
+package com.queuectl.core;
+
+import java.util.Collection;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Signals a queue's workers the moment its next delayed job falls due, so idle workers park on their
+ * signal instead of polling run_after. A TimingWheel holds the earliest known due time per queue and
+ * slot; when a queue fires, its next due time is read back from its store, so scheduled retries cost
+ * nothing in between however many there are. run() drives the wheel and belongs to the daemon.
+ */
+public final class DueWakeups implements Runnable {
+  private static final long TICK_MILLIS = 10;
+
+  interface NextDue { OptionalLong after(String queue, long afterMillis); }
+
+  private final Clock clock;
+  private final WorkNotifier notifier;
+  private final NextDue next;
+  private final ReentrantLock lock = new ReentrantLock(); // not synchronized: the driver may be a virtual thread
+  private final Condition earlier = lock.newCondition();
+  private final TimingWheel wheel;
+  private long plannedWake = Long.MAX_VALUE;
+
+  DueWakeups(Clock clock, WorkNotifier notifier, NextDue next){
+    this.clock = clock; this.notifier = notifier; this.next = next;
+    this.wheel = new TimingWheel(TICK_MILLIS, clock.millis());
+  }
+
+  // Wakes the queue's workers at dueMillis, or now when that has passed.
+  public void schedule(String queue, long dueMillis){
+    boolean placed;
+    lock.lock();
+    try {
+      placed = wheel.add(queue, dueMillis);
+      if (placed && dueMillis < plannedWake) earlier.signal();
+    } finally { lock.unlock(); }
+    if (!placed) notifier.signal(queue);
+  }
+
+  // Schedules the queue's earliest run_after that is still ahead, as read from its store.
+  public void rearm(String queue){
+    next.after(queue, clock.millis()).ifPresent(t -> schedule(queue, t));
+  }
+
+  public void arm(Collection<String> queues){ queues.forEach(this::rearm); }
+
+  @Override public void run(){
+    while (true) {
+      Set<String> fired;
+      lock.lock();
+      try {
+        plannedWake = wheel.nextWakeMillis();
+        long wait = plannedWake - clock.millis();
+        if (wait > 0) {
+          if (plannedWake == Long.MAX_VALUE) earlier.await(); else earlier.await(wait, TimeUnit.MILLISECONDS);
+          continue;
+        }
+        fired = wheel.advance(clock.millis());
+      } catch (InterruptedException e) {
+        return;
+      } finally { lock.unlock(); }
+      for (String q: fired) {
+        notifier.signal(q);
+        try { rearm(q); } catch (RuntimeException ignored) {} // the idle backstop covers a failed read
+      }
+    }
+  }
+}
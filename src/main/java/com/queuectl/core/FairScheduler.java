@@ -0,0 +1,132 @@
+package com.queuectl.core;
+
+import com.queuectl.model.Job;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Chooses the queue a shared-pool worker serves next, by weighted fair queuing on run time. Each queue
+ * has a virtual clock that advances by the run time of its jobs divided by its weight, and the queue
+ * with the lowest clock goes first. A queue starts each job at no less than the current virtual time,
+ * so time spent idle cannot be saved up for a later burst. Queues that are paused, at their
+ * concurrency limit, out of rate-limit permits, behind an open circuit breaker or empty are passed
+ * over until that changes.
+ */
+public final class FairScheduler {
+  public record Lease(String queue, Job job, long chargedNanos, long probe) {}
+
+  private static final int LEASE_SECONDS = 30;
+  private static final long MAX_IDLE_MILLIS = 5000; // backstop for changes nobody signals
+
+  private static final class Lane {
+    final String queue;
+    double vtime;         // virtual nanos: run time charged / weight
+    long retryAt;         // empty or rate-limited: skipped until this time (millis)...
+    long seenGen = -1;    // ...or until the queue is signalled after this generation
+    Lane(String queue){ this.queue = queue; }
+  }
+
+  private final JobService jobs;
+  private final QueueService queues;
+  private final WorkNotifier notifier;
+  private final ReentrantLock lock = new ReentrantLock(); // not synchronized: workers may be virtual threads
+  private final Map<String, Lane> lanes = new LinkedHashMap<>();
+  private double virtualNow;
+
+  public FairScheduler(JobService jobs, QueueService queues, List<String> served){
+    this.jobs = jobs; this.queues = queues; this.notifier = jobs.notifier();
+    for (String q: served) lanes.put(q, new Lane(q));
+  }
+
+  // Leases one job from the most underserved queue that has one, or returns null; done() must follow a lease.
+  public Lease next(String workerId) throws InterruptedException {
+    for (Lane l: candidates()) {
+      String q = l.queue;
+      if (queues.paused(q)) continue; // resuming signals the queue
+      ConcurrencyLimit slots = queues.slots(q);
+      if (!slots.acquire(0)) continue; // a finishing job frees the slot and passes through done()
+      long gen = notifier.generation(q);
+      RateLimiter limiter = queues.limiter(q);
+      if (limiter.acquireUpTo(1) == 0) {
+        slots.release();
+        skip(l, gen, System.currentTimeMillis() + Math.max(1, limiter.nanosUntilPermit() / 1_000_000));
+        continue;
+      }
+      CircuitBreaker breaker = queues.breaker(q);
+      CircuitBreaker.Permit allowed = breaker.acquire(1);
+      if (allowed.granted() == 0) { // open until its period ends; half-open with every probe out until closing signals or the round runs out
+        limiter.release(1); slots.release();
+        long blocked = breaker.blockedMillis();
+        skip(l, gen, System.currentTimeMillis() + (blocked > 0 ? blocked : MAX_IDLE_MILLIS));
+        continue;
+      }
+      List<Job> got;
+      try { got = jobs.claimBatch(q, workerId, 1, LEASE_SECONDS, queues.agingMillis(q)); }
+      catch (RuntimeException e) { breaker.release(allowed.probe(), 1); limiter.release(1); slots.release(); throw e; }
+      if (got.isEmpty()) {
+        breaker.release(allowed.probe(), 1); limiter.release(1); slots.release();
+        skip(l, gen, System.currentTimeMillis() + MAX_IDLE_MILLIS); // DueWakeups signals when a delayed job falls due
+        continue;
+      }
+      long estimate = estimate(q);
+      charge(l, estimate, true);
+      return new Lease(q, got.get(0), estimate, allowed.probe());
+    }
+    return null;
+  }
+
+  // Releases the lease's slot and settles its charge against the measured run time.
+  public void done(Lease lease, long ranNanos){
+    queues.slots(lease.queue()).release();
+    charge(lanes.get(lease.queue()), ranNanos - lease.chargedNanos(), false);
+  }
+
+  // How long an idle worker may park before some skipped queue is due another look.
+  public long idleMillis(){
+    long now = System.currentTimeMillis(), next = now + MAX_IDLE_MILLIS;
+    lock.lock();
+    try { for (Lane l: lanes.values()) if (l.retryAt > now) next = Math.min(next, l.retryAt); }
+    finally { lock.unlock(); }
+    return Math.max(1, next - now);
+  }
+
+  // Queues worth trying, lowest virtual clock first.
+  private List<Lane> candidates(){
+    long now = System.currentTimeMillis();
+    List<Lane> out = new ArrayList<>(lanes.size());
+    lock.lock();
+    try {
+      for (Lane l: lanes.values()) {
+        if (l.seenGen >= 0 && now < l.retryAt && notifier.generation(l.queue) == l.seenGen) continue;
+        l.seenGen = -1;
+        out.add(l);
+      }
+      out.sort(Comparator.comparingDouble(l -> l.vtime));
+    } finally { lock.unlock(); }
+    return out;
+  }
+
+  private void skip(Lane l, long gen, long until){
+    lock.lock();
+    try { l.seenGen = gen; l.retryAt = until; } finally { lock.unlock(); }
+  }
+
+  // start: a new job, which begins no earlier than the current virtual time; otherwise a correction.
+  private void charge(Lane l, long nanos, boolean start){
+    lock.lock();
+    try {
+      if (start) { l.vtime = Math.max(l.vtime, virtualNow); virtualNow = l.vtime; }
+      l.vtime += (double) nanos / queues.weight(l.queue);
+    } finally { lock.unlock(); }
+  }
+
+  private long estimate(String q){
+    long avg = queues.avgRunMillis(q);
+    return Math.max(1, avg) * 1_000_000;
+  }
+}
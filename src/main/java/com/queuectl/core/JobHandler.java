@@ -0,0 +1,19 @@
+package com.queuectl.core;
+
+import java.io.PrintStream;
+
+/**
+ * In-process job handler, run for commands of the form {@code java:<name> [args]} instead of forking a shell.
+ * Implementations are found with ServiceLoader (META-INF/services/com.queuectl.core.JobHandler), are shared
+ * by all workers and must be thread-safe. A timeout interrupts the handler's thread, so long work should
+ * check for interruption.
+ */
+public interface JobHandler {
+  record Context(String args, PrintStream out, PrintStream err) {}
+
+  // The part after "java:"; the implementation class name unless overridden.
+  default String name(){ return getClass().getName(); }
+
+  // Returns the job's exit code; a thrown exception counts as exit code 1.
+  int run(Context ctx) throws Exception;
+}
@@ -0,0 +1,43 @@
+package com.queuectl.core;
+
+import com.queuectl.model.Job;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Runs one leased job to its outcome: on the queue's persistent executor or as a child process, then completes or fails it.
+final class JobRunner {
+  private final JobService jobService;
+  private final QueueService queues;
+  private final CommandExecutor exec;
+
+  JobRunner(JobService jobService, QueueService queues, CommandExecutor exec){
+    this.jobService=jobService; this.queues=queues; this.exec=exec;
+  }
+
+  // probe: as in the CircuitBreaker.Permit the job was claimed under; pool: null to fork per job
+  void run(Job j, long probe, ProcessPool pool, LatencyHistogram execTime) throws Exception {
+    String id = j.id(), queue = j.queue();
+    Consumer<List<CommandExecutor.Chunk>> sink = chunks -> jobService.appendLogs(j, chunks);
+    var capture = queues.capture(queue);
+    CircuitBreaker breaker = queues.breaker(queue);
+    long start = System.nanoTime();
+    CommandExecutor.Result res;
+    try { res = pool != null ? pool.run(id, j.command(), j.timeoutSec(), capture, sink) : exec.run(j.command(), j.timeoutSec(), capture, sink); }
+    catch (InterruptedException e) { breaker.release(probe, 1); throw e; } // stopping: no outcome either way
+    catch (Exception e) { breaker.record(probe, false); throw e; }
+    long took = System.nanoTime() - start;
+    execTime.record(took);
+    queues.observeRun(queue, TimeUnit.NANOSECONDS.toMillis(took));
+    breaker.record(probe, !res.timedOut() && res.exitCode() == 0);
+    Backoff backoff = queues.backoff(queue);
+    if (res.timedOut()) {
+      jobService.onFail(j, 124, "[timeout] " + res.stderr().text(), backoff, res.stats());
+    } else if (res.exitCode() == 0) {
+      jobService.markCompleted(j, 0, null, res.stats()); // stdout already streamed to job_logs
+    } else {
+      jobService.onFail(j, res.exitCode(), res.stderr().text(), backoff, res.stats());
+    }
+  }
+}
@@ -1,226 +1,394 @@
 package com.queuectl.core;
 
+import com.queuectl.db.GroupCommitWriter;
+import com.queuectl.db.Shards;
+import com.queuectl.model.CronSchedule;
 import com.queuectl.model.Job;
 import com.queuectl.model.JobState;
 
 import javax.sql.DataSource;
-import java.sql.*;
-import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
+/**
+ * Job operations over one or more JobStores. Queues use the SQLite store of their shard unless routed
+ * to another one with route(); cron schedules always live in the main SQLite file.
+ */
 public final class JobService {
-  private final DataSource ds;
+  private static final int HAND_OFF_BATCH = 1000;
+  // reads fanned out over the stores block on JDBC, so they get threads of their own rather than the common ForkJoinPool
+  private static final ExecutorService FAN_OUT = Executors.newFixedThreadPool(8, Thread.ofPlatform().daemon().name("store-read-", 0).factory());
   private final Clock clock;
-  public JobService(DataSource ds, Clock clock){ this.ds=ds; this.clock=clock; }
+  private final WorkNotifier notifier;
+  private final Metrics metrics;
+  private final Shards layout;
+  private final List<SqliteJobStore> shards; // index 0 is the main file
+  private final SqliteJobStore durable;
+  private final Map<String, JobStore> routes = new ConcurrentHashMap<>();
+  private final List<JobStore> others = new CopyOnWriteArrayList<>(); // distinct non-durable stores, for id lookups
+  private final Set<String> handOffs = ConcurrentHashMap.newKeySet(); // routed queues that may have jobs waiting in SQLite
+  private final DueWakeups wakeups;
+  private volatile Map<String,Object> jobDefaults = Map.of(); // from config, for jobs that leave a field out
+  public JobService(DataSource ds, Clock clock){ this(ds, clock, null, new WorkNotifier()); }
+  public JobService(DataSource ds, Clock clock, GroupCommitWriter writer){ this(ds, clock, writer, new WorkNotifier()); }
+  public JobService(DataSource ds, Clock clock, GroupCommitWriter writer, WorkNotifier notifier){ this(ds, clock, writer, notifier, new Metrics()); }
+  public JobService(DataSource ds, Clock clock, GroupCommitWriter writer, WorkNotifier notifier, Metrics metrics){
+    this(Shards.of(ds), List.of(new SqliteJobStore(ds, clock, writer, notifier, metrics.histogram(Metrics.Stage.DB_TX))), clock, notifier, metrics);
+  }
+  public JobService(Shards shards, Clock clock){ this(shards, clock, new WorkNotifier(), new Metrics()); }
+  public JobService(Shards shards, Clock clock, WorkNotifier notifier, Metrics metrics){
+    this(shards, stores(shards, clock, notifier, metrics), clock, notifier, metrics);
+  }
+  private JobService(Shards layout, List<SqliteJobStore> shards, Clock clock, WorkNotifier notifier, Metrics metrics){
+    this.layout=layout; this.shards=shards; this.durable=shards.get(0); this.clock=clock; this.notifier=notifier; this.metrics=metrics;
+    this.wakeups = new DueWakeups(clock, notifier, this::nextRunAfter);
+    try { loadDefaults(); } catch (RuntimeException unmigrated) {}
+  }
 
-  public void enqueue(Map<String,Object> json){
-    String id=(String)json.get("id");
-    String queue=(String)json.getOrDefault("queue","default");
-    String command=(String)json.get("command");
-    String args=(String)json.getOrDefault("args", null);
-    String idk=(String)json.getOrDefault("idempotency_key", null);
-    int maxRetries = toInt(json.getOrDefault("max_retries",3));
-    int priority = toInt(json.getOrDefault("priority",0));
-    int timeoutSec = toInt(json.getOrDefault("timeout_sec",60));
-    Instant now = clock.now();
-    Instant runAfter = json.containsKey("run_after") ? Instant.parse((String)json.get("run_after")) : now;
-    String cron = (String)json.getOrDefault("cron", null);
-
-    if(id==null || command==null) throw new IllegalArgumentException("id and command required");
-
-    try(Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(
-      "INSERT INTO jobs(id,queue,command,args,state,attempts,max_retries,priority,timeout_sec,idempotency_key,run_after,cron,created_at,updated_at) VALUES(?, ?, ?, ?, 'pending', 0, ?, ?, ?, ?, ?, ?, ?, ?)"
-    )){
-      ps.setString(1,id); ps.setString(2,queue); ps.setString(3,command); ps.setString(4,args);
-      ps.setInt(5,maxRetries); ps.setInt(6,priority); ps.setInt(7,timeoutSec); ps.setString(8,idk);
-      ps.setString(9,runAfter.toString()); ps.setString(10,cron);
-      ps.setString(11,now.toString()); ps.setString(12,now.toString());
-      ps.executeUpdate();
-    } catch(SQLException e){
-      if(e.getMessage()!=null && e.getMessage().contains("PRIMARY KEY")) throw new IllegalStateException("Job id exists: "+id);
-      if(e.getMessage()!=null && e.getMessage().contains("ux_jobs_idem")) throw new IllegalStateException("Idempotent duplicate for key: "+idk);
-      throw new RuntimeException(e);
+  private static List<SqliteJobStore> stores(Shards shards, Clock clock, WorkNotifier notifier, Metrics metrics){
+    List<SqliteJobStore> out = new ArrayList<>(shards.count());
+    for (int k = 0; k < shards.count(); k++) out.add(new SqliteJobStore(shards.get(k), clock, shards.writer(k), notifier, metrics.histogram(Metrics.Stage.DB_TX)));
+    return out;
+  }
+
+  public WorkNotifier notifier(){ return notifier; }
+  public Clock clock(){ return clock; }
+  public Metrics metrics(){ return metrics; }
+  public DueWakeups wakeups(){ return wakeups; }
+
+  // Re-reads the max_retries and job_timeout_sec config rows, used for jobs and schedules that do not set their own.
+  public void loadDefaults(){
+    ConfigService config = new ConfigService(layout.main());
+    Map<String,Object> d = new HashMap<>();
+    config.get("max_retries").ifPresent(v -> d.put("max_retries", v.trim()));
+    config.get("job_timeout_sec").ifPresent(v -> d.put("timeout_sec", v.trim()));
+    jobDefaults = d;
+  }
+
+  private Map<String,Object> withDefaults(Map<String,Object> json){
+    Map<String,Object> d = jobDefaults;
+    if (json.keySet().containsAll(d.keySet())) return json;
+    Map<String,Object> out = new HashMap<>(json);
+    d.forEach(out::putIfAbsent);
+    return out;
+  }
+
+  // Serves the queue from store from now on; jobs already in SQLite for it are handed over as workers claim.
+  public void route(String queue, JobStore store){
+    routes.put(queue, store);
+    if (!others.contains(store)) others.add(store);
+    handOffs.add(queue);
+  }
+
+  // The queue's SQLite file gained pending jobs (from DbChangeWatcher); a routed queue takes them over on its next claim.
+  public void pendingInSqlite(String queue){ if (routes.containsKey(queue)) handOffs.add(queue); }
+
+  public JobStore store(String queue){
+    JobStore s = routes.get(queue);
+    return s != null ? s : sqlite(queue);
+  }
+
+  // The shard the queue's SQLite jobs live on, and whether pinning it to shard would keep them there.
+  public int shard(String queue){ return layout.of(queue); }
+  public boolean staysOnShard(String queue, int shard){ return layout.of(queue) == layout.wrap(shard); }
+
+  // Jobs of the queue in its SQLite file that are not completed.
+  public long unfinishedInSqlite(String queue){ return unfinished(sqlite(queue).countsByQueue().getOrDefault(queue, Map.of())); }
+
+  // Jobs in any state but completed, from one queue's counts by state.
+  static long unfinished(Map<String,Long> counts){
+    return counts.values().stream().mapToLong(Long::longValue).sum() - counts.getOrDefault(JobState.completed.name(), 0L);
+  }
+
+  // The SQLite file the queue's jobs are written to, routed or not.
+  private SqliteJobStore sqlite(String queue){ return shards.size() == 1 ? durable : shards.get(layout.of(queue)); }
+
+  private JobStore owner(String id){
+    for (JobStore s: others) if (s.contains(id)) return s;
+    if (shards.size() > 1) for (SqliteJobStore s: shards) if (s.contains(id)) return s;
+    return durable;
+  }
+
+  // A routed queue's jobs that could not be handed off (dependency edges) are still served from SQLite.
+  private JobStore holder(Job job){
+    JobStore s = store(job.queue());
+    SqliteJobStore home = sqlite(job.queue());
+    return s == home || s.contains(job.id()) ? s : home;
+  }
+
+  // Every store: the SQLite shards first, then the distinct routed ones.
+  public List<JobStore> stores(){
+    List<JobStore> all = new ArrayList<>(shards.size() + others.size());
+    all.addAll(shards); all.addAll(others);
+    return all;
+  }
+
+  // Runs f against every store (or the given ones), concurrently on the FAN_OUT threads when there is more than one to read.
+  private <T> List<T> fanOut(Function<JobStore, T> f){ return fanOut(stores(), f); }
+
+  private <S extends JobStore, T> List<T> fanOut(List<S> all, Function<S, T> f){
+    if (all.size() == 1) return List.of(f.apply(all.get(0)));
+    List<CompletableFuture<T>> parts = new ArrayList<>(all.size());
+    for (S s: all) parts.add(CompletableFuture.supplyAsync(() -> f.apply(s), FAN_OUT));
+    List<T> out = new ArrayList<>(parts.size());
+    for (CompletableFuture<T> p: parts) {
+      try { out.add(p.join()); }
+      catch (CompletionException e) { throw e.getCause() instanceof RuntimeException r ? r : e; }
     }
+    return out;
+  }
+
+  public record BatchEntry(long line, Map<String,Object> json) {}
+  public record Rejection(long line, String id, String reason) {}
+
+  public void enqueue(Map<String,Object> json){
+    json = withDefaults(json);
+    if (json.get("cron") != null){ schedule(json); return; }
+    long now = clock.millis();
+    JobStore.NewJob job = JobStore.NewJob.of(json, now);
+    store(job.queue()).insert(job);
+    if (job.runAfter() > now) wakeups.schedule(job.queue(), job.runAfter());
+  }
+
+  // Inserts in transactions of chunkSize rows through one reused statement. Invalid entries and
+  // id/idempotency conflicts go to onReject and are skipped without aborting the batch.
+  public long enqueueBatch(Iterator<BatchEntry> entries, int chunkSize, Consumer<Rejection> onReject){
+    Set<String> delayed = new HashSet<>();
+    try { return insertBatch(prepared(entries, delayed), chunkSize, onReject); }
+    finally { delayed.forEach(wakeups::rearm); } // one indexed read per queue that got run_after entries
   }
 
-  private int toInt(Object o){ return o instanceof Number n? n.intValue(): Integer.parseInt(String.valueOf(o)); }
-
-  public Optional<Job> claimNext(String queue, String workerId, int leaseSeconds){
-    Instant now = clock.now();
-    Instant leaseUntil = now.plusSeconds(leaseSeconds);
-    try (Connection c = ds.getConnection()) {
-      c.setAutoCommit(false);
-      String select = """
-        SELECT j.id FROM jobs j
-        WHERE j.state='pending' AND j.queue=? AND j.run_after <= ?
-          AND NOT EXISTS (SELECT 1 FROM job_deps d JOIN jobs p ON d.depends_on=p.id WHERE d.job_id=j.id AND p.state!='completed')
-        ORDER BY j.priority DESC, j.created_at ASC
-        LIMIT 1
-      """;
-      String update = """
-        UPDATE jobs SET state='processing', worker_id=?, lease_until=?, updated_at=?
-        WHERE id=? AND state='pending' AND run_after <= ?
-      """;
-      String id = null;
-      try (PreparedStatement s=c.prepareStatement(select)){
-        s.setString(1, queue); s.setString(2, now.toString());
-        try(ResultSet rs = s.executeQuery()){ if(rs.next()) id = rs.getString(1); }
+  // Fills in the config defaults, noting the queues of entries that carry a run_after.
+  private Iterator<BatchEntry> prepared(Iterator<BatchEntry> entries, Set<String> delayed){
+    return new Iterator<>() {
+      public boolean hasNext(){ return entries.hasNext(); }
+      public BatchEntry next(){
+        BatchEntry e = entries.next();
+        if (e.json() == null) return e;
+        if (e.json().get("run_after") != null) delayed.add(String.valueOf(e.json().getOrDefault("queue", "default")));
+        Map<String,Object> json = withDefaults(e.json());
+        return json == e.json() ? e : new BatchEntry(e.line(), json);
       }
-      if (id == null){ c.rollback(); c.setAutoCommit(true); return Optional.empty(); }
-      try (PreparedStatement u=c.prepareStatement(update)){
-        u.setString(1, workerId); u.setString(2, leaseUntil.toString()); u.setString(3, now.toString());
-        u.setString(4, id); u.setString(5, now.toString());
-        int rows = u.executeUpdate();
-        if (rows==0){ c.rollback(); c.setAutoCommit(true); return Optional.empty(); }
+    };
+  }
+
+  private long insertBatch(Iterator<BatchEntry> entries, int chunkSize, Consumer<Rejection> onReject){
+    if (routes.isEmpty() && shards.size() == 1) return durable.enqueueBatch(entries, chunkSize, onReject);
+    // rows are gathered per SQLite file and written a chunk at a time; entries for other stores are inserted as they stream past
+    Map<SqliteJobStore, List<BatchEntry>> chunks = new LinkedHashMap<>();
+    long inserted = 0;
+    while (entries.hasNext()) {
+      BatchEntry e = entries.next();
+      String q = String.valueOf(e.json().getOrDefault("queue", "default"));
+      boolean cron = e.json().get("cron") != null;
+      JobStore s = store(q);
+      if (s instanceof SqliteJobStore db) {
+        if (cron) db = durable; // schedules live in the main file whatever the queue's shard
+        List<BatchEntry> chunk = chunks.computeIfAbsent(db, k -> new ArrayList<>(chunkSize));
+        chunk.add(e);
+        if (chunk.size() >= chunkSize) { inserted += db.enqueueBatch(chunk.iterator(), chunkSize, onReject); chunk.clear(); }
+        continue;
       }
-      Job job = getByIdConn(c, id).orElseThrow();
-      c.commit(); c.setAutoCommit(true);
-      return Optional.of(job);
-    } catch (SQLException e){ throw new RuntimeException(e); }
-  }
-
-  public void markCompleted(String id, int exitCode, String stdoutTail){
-    Instant now = clock.now();
-    try (Connection c = ds.getConnection()){
-      c.setAutoCommit(false);
-      try (PreparedStatement ps=c.prepareStatement("UPDATE jobs SET state='completed', updated_at=?, last_exit_code=? WHERE id=? AND state='processing'")){
-        ps.setString(1, now.toString()); ps.setInt(2, exitCode); ps.setString(3, id); ps.executeUpdate();
+      Object id = e.json().get("id");
+      try {
+        if (cron) throw new IllegalArgumentException("cron schedules need a durable queue: "+q);
+        s.insert(JobStore.NewJob.of(e.json(), clock.millis()));
+        inserted++;
+      } catch (RuntimeException bad){ onReject.accept(new Rejection(e.line(), id==null? null: String.valueOf(id), String.valueOf(bad.getMessage()))); }
+    }
+    for (var c: chunks.entrySet()) inserted += c.getKey().enqueueBatch(c.getValue().iterator(), chunkSize, onReject);
+    return inserted;
+  }
+
+  public Optional<Job> claimNext(String queue, String workerId, int leaseSeconds, long agingMillis){
+    List<Job> batch = claimBatch(queue, workerId, 1, leaseSeconds, agingMillis);
+    return batch.isEmpty()? Optional.empty(): Optional.of(batch.get(0));
+  }
+
+  // Leases up to n ready jobs of the queue from its store, in JobStore.claimOrder(agingMillis)
+  public List<Job> claimBatch(String queue, String workerId, int n, int leaseSeconds, long agingMillis){
+    long start = System.nanoTime();
+    List<Job> out;
+    try {
+      JobStore s = store(queue);
+      SqliteJobStore home = sqlite(queue);
+      out = s.claim(queue, workerId, n, leaseSeconds, agingMillis);
+      // jobs that other processes enqueued into SQLite for a routed queue move over once its own store runs dry;
+      // the ones tied into a dependency graph stay behind and are claimed from SQLite in place. SQLite is only
+      // asked while jobs may be waiting there: the mark is dropped before the count is read, so jobs landing
+      // in between mark the queue again, and it comes back only if this pass found something. Dependency-tied
+      // rows that are not ready yet don't keep it; the watcher marks the queue again once one becomes due.
+      if (s != home && out.size() < n && handOffs.remove(queue) && home.pending(queue) > 0) {
+        int moved = home.handOff(queue, HAND_OFF_BATCH, s).size();
+        out = new ArrayList<>(out);
+        out.addAll(s.claim(queue, workerId, n - out.size(), leaseSeconds, agingMillis));
+        List<Job> inPlace = out.size() < n ? home.claim(queue, workerId, n - out.size(), leaseSeconds, agingMillis) : List.of();
+        out.addAll(inPlace);
+        if (moved > 0 || !inPlace.isEmpty()) handOffs.add(queue);
       }
-      if (stdoutTail!=null && !stdoutTail.isEmpty()) logLineConn(c, id, "stdout", stdoutTail);
-      c.commit(); c.setAutoCommit(true);
-    } catch (SQLException e){ throw new RuntimeException(e); }
+    } finally { metrics.histogram(Metrics.Stage.CLAIM, queue).record(System.nanoTime() - start); }
+    if (!out.isEmpty()) {
+      long now = clock.millis();
+      LatencyHistogram wait = metrics.histogram(Metrics.Stage.QUEUE_WAIT, queue);
+      for (Job j: out) wait.record(TimeUnit.MILLISECONDS.toNanos(now - j.runAfterMillis()));
+    }
+    return out;
+  }
+
+  // Hands unstarted leases back to pending, only while workerId still holds them
+  public void releaseLeases(String queue, Collection<String> ids, String workerId){
+    JobStore s = store(queue);
+    SqliteJobStore home = sqlite(queue);
+    if (s == home) { s.releaseLeases(ids, workerId); return; }
+    List<String> own = new ArrayList<>(), rest = new ArrayList<>();
+    for (String id: ids) (s.contains(id) ? own : rest).add(id);
+    s.releaseLeases(own, workerId);
+    home.releaseLeases(rest, workerId);
   }
 
-  public void onFail(Job job, int exitCode, String error, Backoff backoff){
-    Instant now = clock.now();
+  // Returns leases that ran out to pending in every store.
+  public int expireLeases(){ return fanOut(JobStore::expireLeases).stream().mapToInt(Integer::intValue).sum(); }
+
+  public CompletableFuture<Void> markCompleted(Job job, int exitCode, String stdoutTail){
+    return markCompleted(job, exitCode, stdoutTail, null);
+  }
+
+  public CompletableFuture<Void> markCompleted(Job job, int exitCode, String stdoutTail, CommandExecutor.OutputStats stats){
+    return holder(job).markCompleted(job, exitCode, stdoutTail, stats);
+  }
+
+  public CompletableFuture<Void> onFail(Job job, int exitCode, String error, Backoff backoff){
+    return onFail(job, exitCode, error, backoff, null);
+  }
+
+  public CompletableFuture<Void> onFail(Job job, int exitCode, String error, Backoff backoff, CommandExecutor.OutputStats stats){
+    JobStore s = holder(job);
     int next = job.attempts()+1;
-    if (next > job.maxRetries()){
-      moveToDlq(job.id(), exitCode, error);
-      return;
-    }
-    int delay = backoff.delaySeconds(next);
-    Instant nextRun = now.plusSeconds(delay);
-    try (Connection c = ds.getConnection()){
-      c.setAutoCommit(false);
-      try (PreparedStatement ps=c.prepareStatement("""
-        UPDATE jobs SET state='pending', attempts=?, updated_at=?, run_after=?, last_exit_code=?, last_error=NULL, worker_id=NULL, lease_until=NULL
-        WHERE id=?""")){
-        ps.setInt(1,next); ps.setString(2, now.toString()); ps.setString(3, nextRun.toString());
-        ps.setInt(4, exitCode); ps.setString(5, job.id()); ps.executeUpdate();
-      }
-      logLineConn(c, job.id(), "stderr", truncate(error, 1024));
-      c.commit(); c.setAutoCommit(true);
-    } catch (SQLException e){ throw new RuntimeException(e); }
-  }
-
-  private void moveToDlq(String id, int exitCode, String error){
-    Instant now = clock.now();
-    try (Connection c = ds.getConnection()){
-      c.setAutoCommit(false);
-      Job j = getByIdConn(c, id).orElseThrow();
-      try (PreparedStatement ins=c.prepareStatement("""
-        INSERT INTO dlq(id, queue, command, attempts, last_exit_code, last_error, moved_at) VALUES(?,?,?,?,?,?,?)""")){
-        ins.setString(1, j.id()); ins.setString(2, j.queue()); ins.setString(3, j.command());
-        ins.setInt(4, j.attempts()+1); ins.setInt(5, exitCode); ins.setString(6, truncate(error, 2048));
-        ins.setString(7, now.toString()); ins.executeUpdate();
-      }
-      try (PreparedStatement upd=c.prepareStatement("UPDATE jobs SET state='dead', updated_at=? WHERE id=?")){
-        upd.setString(1, now.toString()); upd.setString(2, id); upd.executeUpdate();
-      }
-      c.commit(); c.setAutoCommit(true);
-    } catch (SQLException e){ throw new RuntimeException(e); }
-  }
-
-  public void retryFromDlq(String id){
-    try (Connection c = ds.getConnection()){
-      c.setAutoCommit(false);
-      String sel="SELECT id, queue, command FROM dlq WHERE id=?";
-      try (PreparedStatement s=c.prepareStatement(sel)){ s.setString(1,id); try (ResultSet rs=s.executeQuery()){
-        if(!rs.next()) throw new IllegalArgumentException("DLQ not found: "+id);
-        String jid=rs.getString(1), queue=rs.getString(2), cmd=rs.getString(3);
-        Map<String,Object> m = new HashMap<>(); m.put("id", jid); m.put("queue", queue); m.put("command", cmd);
-        enqueue(m);
-      }}
-      try (PreparedStatement d=c.prepareStatement("DELETE FROM dlq WHERE id=?")){ d.setString(1, id); d.executeUpdate(); }
-      c.commit(); c.setAutoCommit(true);
-    } catch (SQLException e){ throw new RuntimeException(e); }
-  }
-
-  public void materializeCron(Instant now){
-    long minute = now.getEpochSecond()/60;
-    try (Connection c = ds.getConnection();
-         PreparedStatement ps = c.prepareStatement("SELECT id, queue, command FROM jobs WHERE cron IS NOT NULL")) {
-      try (ResultSet rs = ps.executeQuery()){
-        while(rs.next()){
-          String baseId = rs.getString(1), q=rs.getString(2), cmd=rs.getString(3);
-          String idem = Idempotency.cronKey(baseId, minute);
-          Map<String,Object> m = new HashMap<>();
-          m.put("id", baseId+"-i-"+minute); m.put("queue", q); m.put("command", cmd); m.put("idempotency_key", idem);
-          try { enqueue(m); } catch (Exception ignored){}
-        }
-      }
-    } catch (SQLException e){ throw new RuntimeException(e); }
+    if (next > job.maxRetries()) return s.moveToDlq(job, exitCode, error, stats);
+    long nextRun = clock.millis() + backoff.delaySeconds(next, job.id())*1000L;
+    return s.retry(job, next, nextRun, exitCode, error, stats).thenRun(() -> wakeups.schedule(job.queue(), nextRun));
+  }
+
+  public CompletableFuture<Void> appendLog(String jobId, String kind, String content){
+    return appendLogs(jobId, List.of(new CommandExecutor.Chunk(kind, content)));
+  }
+
+  public CompletableFuture<Void> appendLogs(String jobId, List<CommandExecutor.Chunk> chunks){
+    return owner(jobId).appendLogs(jobId, chunks);
+  }
+
+  public CompletableFuture<Void> appendLogs(Job job, List<CommandExecutor.Chunk> chunks){
+    return holder(job).appendLogs(job.id(), chunks);
+  }
+
+  public void retryFromDlq(String id){ owner(id).retryFromDlq(id); }
+
+  public record CronFire(CronSchedule schedule, long fireAt, long nextFireAt) {}
+
+  // A job JSON carrying "cron" defines a schedule in cron_schedules instead of a job row.
+  public void schedule(Map<String,Object> json){
+    String queue = String.valueOf(json.getOrDefault("queue", "default"));
+    if (routes.containsKey(queue)) throw new IllegalArgumentException("cron schedules need a durable queue: "+queue);
+    durable.schedule(json);
   }
 
+  public List<CronSchedule> loadSchedules(){ return durable.loadSchedules(); }
+
+  // Changes whenever a schedule is added, removed or edited; lets the scheduler skip reloading an unchanged table.
+  public String schedulesFingerprint(){ return durable.schedulesFingerprint(); }
+
+  // Instances always land in SQLite; a routed queue picks them up through the hand-off in claimBatch.
+  public void materializeCron(List<CronFire> fires){
+    if (shards.size() == 1) { durable.materializeCron(fires); return; }
+    Map<SqliteJobStore, List<CronFire>> byShard = new LinkedHashMap<>();
+    for (CronFire f: fires) byShard.computeIfAbsent(sqlite(f.schedule().queue()), k -> new ArrayList<>()).add(f);
+    byShard.forEach((shard, group) -> {
+      if (shard == durable) { durable.materializeCron(group); return; }
+      shard.insertCronInstances(group);
+      durable.advanceSchedules(group);
+    });
+  }
+
+  public record Backlog(long ready, long oldestReadyMillis) {}
+
+  // Jobs claimable right now (counted up to cap) and when the longest-waiting of them became due (0: none).
+  public Backlog backlog(String queue, int cap){
+    JobStore s = store(queue);
+    SqliteJobStore home = sqlite(queue);
+    Backlog b = s.backlog(queue, cap);
+    if (s == home) return b;
+    Backlog waiting = home.backlog(queue, cap);
+    long oldest = b.oldestReadyMillis() == 0 ? waiting.oldestReadyMillis()
+      : waiting.oldestReadyMillis() == 0 ? b.oldestReadyMillis() : Math.min(b.oldestReadyMillis(), waiting.oldestReadyMillis());
+    return new Backlog(Math.min(cap, b.ready() + waiting.ready()), oldest);
+  }
+
+  // Earliest run_after later than afterMillis among pending jobs of the queue with no unmet deps.
+  public OptionalLong nextRunAfter(String queue, long afterMillis){
+    JobStore s = store(queue);
+    SqliteJobStore home = sqlite(queue);
+    OptionalLong own = s.nextRunAfter(queue, afterMillis);
+    if (s == home) return own;
+    OptionalLong waiting = home.nextRunAfter(queue, afterMillis);
+    if (own.isEmpty()) return waiting;
+    return waiting.isEmpty() ? own : OptionalLong.of(Math.min(own.getAsLong(), waiting.getAsLong()));
+  }
+
+  private static final String[] STATES = {"pending","processing","completed","failed","dead"};
+
   public Map<String,Long> countsByState(){
     Map<String,Long> m = new LinkedHashMap<>();
-    String[] states = {"pending","processing","completed","failed","dead"};
-    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM jobs WHERE state=?")){
-      for (String s: states){ ps.setString(1, s); try (ResultSet rs = ps.executeQuery()){ rs.next(); m.put(s, rs.getLong(1)); } }
-    } catch (SQLException e){ throw new RuntimeException(e); }
+    for (String s: STATES) m.put(s, 0L);
+    countsByQueue().values().forEach(q -> q.forEach((s, n) -> m.merge(s, n, Long::sum)));
     return m;
   }
 
+  public Map<String,Map<String,Long>> countsByQueue(){
+    Map<String,Map<String,Long>> out = new TreeMap<>();
+    for (Map<String,Map<String,Long>> part: fanOut(JobStore::countsByQueue)) {
+      part.forEach((q, counts) -> {
+        Map<String,Long> m = out.computeIfAbsent(q, k -> { Map<String,Long> z = new LinkedHashMap<>(); for (String st: STATES) z.put(st, 0L); return z; });
+        counts.forEach((st, n) -> m.merge(st, n, Long::sum));
+      });
+    }
+    return out;
+  }
+
+  // Recomputes queue_stats from jobs in one transaction; returns how many counters had drifted.
+  public int rebuildStats(){
+    return fanOut(shards, SqliteJobStore::rebuildStats).stream().mapToInt(Integer::intValue).sum();
+  }
+
+  // Newest first; a null state lists every state.
   public List<Job> list(String state, int limit){
-    String sql = "SELECT * FROM jobs WHERE state=? ORDER BY created_at DESC LIMIT ?";
-    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)){
-      ps.setString(1, state); ps.setInt(2, limit);
-      try (ResultSet rs = ps.executeQuery()){
-        List<Job> out = new ArrayList<>(); while(rs.next()) out.add(map(rs)); return out;
-      }
-    } catch (SQLException e){ throw new RuntimeException(e); }
+    if (state != null && stores().size() == 1) return durable.list(state, limit);
+    List<String> states = state == null ? Arrays.asList(STATES) : List.of(state);
+    List<Job> all = new ArrayList<>();
+    for (List<Job> part: fanOut(s -> states.stream().flatMap(st -> s.list(st, limit).stream()).toList())) all.addAll(part);
+    all.sort(Comparator.comparingLong(Job::createdAtMillis).reversed());
+    return all.size() > limit ? all.subList(0, limit) : all;
   }
 
   public List<Map<String,Object>> listDlq(){
-    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT id, queue, command, attempts, last_exit_code FROM dlq ORDER BY moved_at DESC")){
-      try(ResultSet rs = ps.executeQuery()){
-        List<Map<String,Object>> out = new ArrayList<>();
-        while(rs.next()){
-          Map<String,Object> m = new LinkedHashMap<>();
-          m.put("id", rs.getString(1)); m.put("queue", rs.getString(2)); m.put("command", rs.getString(3));
-          m.put("attempts", rs.getInt(4)); m.put("last_exit_code", rs.getInt(5)); out.add(m);
-        }
-        return out;
-      }
-    } catch (SQLException e){ throw new RuntimeException(e); }
-  }
-
-  public List<String> logs(String jobId, int limit){
-    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT created_at || ' ' || kind || ' ' || content FROM job_logs WHERE job_id=? ORDER BY id DESC LIMIT ?")){
-      ps.setString(1, jobId); ps.setInt(2, limit);
-      try (ResultSet rs = ps.executeQuery()){ List<String> out=new ArrayList<>(); while(rs.next()) out.add(rs.getString(1)); return out; }
-    } catch (SQLException e){ throw new RuntimeException(e); }
-  }
-
-  // ----- helpers -----
-  private Optional<Job> getByIdConn(Connection c, String id) throws SQLException {
-    try (PreparedStatement ps=c.prepareStatement("SELECT * FROM jobs WHERE id=?")){ ps.setString(1, id); try (ResultSet rs=ps.executeQuery()){ return rs.next()? Optional.of(map(rs)): Optional.empty(); } }
-  }
-  private static Job map(ResultSet r) throws SQLException {
-    return new Job(
-      r.getString("id"), r.getString("queue"), r.getString("command"), r.getString("args"),
-      JobState.valueOf(r.getString("state")), r.getInt("attempts"), r.getInt("max_retries"),
-      r.getInt("priority"), r.getInt("timeout_sec"), r.getString("idempotency_key"),
-      Instant.parse(r.getString("created_at")), Instant.parse(r.getString("updated_at")),
-      Instant.parse(r.getString("run_after")),
-      r.getString("lease_until")==null? null: Instant.parse(r.getString("lease_until")),
-      r.getString("worker_id"), (Integer)r.getObject("last_exit_code"), r.getString("last_error")
-    );
-  }
-  private void logLineConn(Connection c, String jobId, String kind, String content) throws SQLException {
-    try (PreparedStatement ps=c.prepareStatement("INSERT INTO job_logs(job_id,created_at,kind,content) VALUES(?,?,?,?)")){
-      ps.setString(1, jobId); ps.setString(2, clock.now().toString()); ps.setString(3, kind); ps.setString(4, content); ps.executeUpdate();
-    }
+    List<Map<String,Object>> out = new ArrayList<>();
+    fanOut(JobStore::listDlq).forEach(out::addAll);
+    return out;
   }
-  private static String truncate(String s, int n){ if(s==null) return null; return s.length()>n? s.substring(0,n):s; }
+
+  public record LogEntry(long id, String createdAt, String kind, String content) {}
+
+  // Log rows after the given id, oldest first; followers pass the last id they saw.
+  public List<LogEntry> logsAfter(String jobId, long afterId, int limit){ return owner(jobId).logsAfter(jobId, afterId, limit); }
+
+  public Optional<JobState> state(String id){ return owner(id).state(id); }
+
+  public List<String> logs(String jobId, int limit){ return owner(jobId).logs(jobId, limit); }
 }
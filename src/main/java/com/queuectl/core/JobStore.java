@@ -0,0 +1,83 @@
+package com.queuectl.core;
+
+import com.queuectl.model.Job;
+import com.queuectl.model.JobState;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Persistence engine behind JobService. Each queue is served by exactly one store; JobService routes
+ * queue-keyed calls by queue and id-keyed calls to the store that holds the id. Stores signal the
+ * shared WorkNotifier themselves when they make work ready.
+ */
+public interface JobStore {
+  // Highest priority first, where every agingMillis a job has waited since creation counts as one more
+  // level: ascending created_at - priority * agingMillis, which needs no clock. 0 orders by priority alone.
+  static Comparator<Job> claimOrder(long agingMillis){
+    Comparator<Job> byPriority = Comparator.comparingInt(Job::priority).reversed().thenComparingLong(Job::createdAtMillis);
+    if (agingMillis <= 0) return byPriority;
+    return Comparator.comparingLong((Job j) -> j.createdAtMillis() - j.priority() * agingMillis).thenComparing(byPriority);
+  }
+
+  record NewJob(String id, String queue, String command, String args, int maxRetries, int priority, int timeoutSec,
+                String idempotencyKey, long runAfter, List<String> dependsOn) {
+    // Parses enqueue JSON; run_after defaults to now, depends_on may be a single id or an array of ids.
+    public static NewJob of(Map<String,Object> json, long now) {
+      String id=(String)json.get("id");
+      String command=(String)json.get("command");
+      if(id==null || command==null) throw new IllegalArgumentException("id and command required");
+      long runAfter = json.containsKey("run_after") ? Instant.parse((String)json.get("run_after")).toEpochMilli() : now;
+      List<String> deps = dependsOn(json);
+      if (deps.contains(id)) throw new IllegalArgumentException("Job cannot depend on itself: "+id);
+      return new NewJob(id, (String)json.getOrDefault("queue","default"), command, (String)json.getOrDefault("args", null),
+        toInt(json.getOrDefault("max_retries",3)), toInt(json.getOrDefault("priority",0)), toInt(json.getOrDefault("timeout_sec",60)),
+        (String)json.getOrDefault("idempotency_key", null), runAfter, deps);
+    }
+
+    private static List<String> dependsOn(Map<String,Object> json){
+      Object v = json.get("depends_on");
+      if (v == null) return List.of();
+      if (v instanceof Collection<?> col){
+        Set<String> ids = new LinkedHashSet<>();
+        for (Object o: col) ids.add((String)o);
+        return new ArrayList<>(ids);
+      }
+      return List.of((String)v);
+    }
+
+    static int toInt(Object o){ return o instanceof Number n? n.intValue(): Integer.parseInt(String.valueOf(o)); }
+  }
+
+  // IllegalStateException on a duplicate id or idempotency key, IllegalArgumentException on an unknown dependency.
+  void insert(NewJob job);
+  // Takes over a pending job handed off by another store, keeping its id, attempts and timestamps;
+  // completes once the job is as durable here as this store makes anything.
+  CompletableFuture<Void> adopt(Job job);
+  // Leases up to n ready jobs in claimOrder(agingMillis).
+  List<Job> claim(String queue, String workerId, int n, int leaseSeconds, long agingMillis);
+  void releaseLeases(Collection<String> ids, String workerId);
+  // Leases that ran out go back to pending; returns how many.
+  int expireLeases();
+
+  // The terminal writes take the claimed job, so a store can check its worker still holds the lease.
+  CompletableFuture<Void> markCompleted(Job job, int exitCode, String stdoutTail, CommandExecutor.OutputStats stats);
+  // error goes to job_logs only without stats; a run that has stats streamed its stderr there itself.
+  CompletableFuture<Void> retry(Job job, int attempts, long runAfter, int exitCode, String error, CommandExecutor.OutputStats stats);
+  CompletableFuture<Void> moveToDlq(Job job, int exitCode, String error, CommandExecutor.OutputStats stats);
+  void retryFromDlq(String id);
+  CompletableFuture<Void> appendLogs(String jobId, List<CommandExecutor.Chunk> chunks);
+
+  JobService.Backlog backlog(String queue, int cap);
+  // Earliest run_after later than afterMillis among pending jobs of the queue with no unmet deps.
+  OptionalLong nextRunAfter(String queue, long afterMillis);
+  // queue -> state -> count, every state present
+  Map<String,Map<String,Long>> countsByQueue();
+  List<Job> list(String state, int limit);
+  List<Map<String,Object>> listDlq();
+  Optional<JobState> state(String id);
+  boolean contains(String id);
+  List<JobService.LogEntry> logsAfter(String jobId, long afterId, int limit);
+  List<String> logs(String jobId, int limit);
+}
@@ -0,0 +1,172 @@
+package com.queuectl.core;
+
+import com.queuectl.db.SegmentJournal;
+import com.queuectl.model.Job;
+import com.queuectl.model.JobState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Durable JobStore without SQLite: a MemoryJobStore serves every read and claim, and each job change
+ * is appended to a SegmentJournal as the job's full new version. Startup replays the journal, last
+ * version per id winning. Once enough segments pile up, compaction rewrites the log as a snapshot of
+ * the jobs that are not completed. Job logs stay in memory only.
+ */
+public final class JournalJobStore implements JobStore, AutoCloseable {
+  private static final int SEGMENT_BYTES = 32 << 20;
+  private static final long SYNC_MILLIS = 5;
+  private static final int COMPACT_AFTER_SEGMENTS = 4; // new segments since the last snapshot
+  private static final byte INSERTED = 1, CHANGED = 2;
+
+  private final SegmentJournal journal;
+  private final MemoryJobStore index;
+  private volatile int compactedAt;
+
+  public JournalJobStore(Path dir, Clock clock, WorkNotifier notifier, LatencyHistogram syncTime){
+    this.journal = new SegmentJournal(dir, SEGMENT_BYTES, SYNC_MILLIS, syncTime);
+    Map<String, Job> latest = new LinkedHashMap<>();
+    Map<String, List<String>> parents = new HashMap<>();
+    try {
+      journal.replay(b -> {
+        byte type = b.get();
+        Job j = readJob(b);
+        latest.put(j.id(), j);
+        if (type == INSERTED) parents.put(j.id(), readIds(b));
+      });
+    } catch (RuntimeException e) { journal.close(); throw e; } // lets go of the lock
+    this.index = new MemoryJobStore(clock, notifier, new MemoryJobStore.Changes() {
+      public void inserted(Job job, List<String> dependsOn){ journal.append(encode(INSERTED, job, dependsOn)); }
+      public void changed(Job job){ journal.append(encode(CHANGED, job, null)); }
+    });
+    index.restore(latest.values(), parents);
+    compactedAt = 1; // segments left by earlier runs count as growth, so a long history compacts soon after start
+  }
+
+  // Inserts return once the record is in the mapped segment, which survives a process crash; like
+  // SQLite's synchronous=NORMAL, only an OS crash before the next group sync can lose it.
+  @Override public void insert(NewJob job){ index.insert(job); }
+  @Override public CompletableFuture<Void> adopt(Job job){ index.adopt(job); return journal.sync(); }
+  @Override public List<Job> claim(String queue, String workerId, int n, int leaseSeconds, long agingMillis){ return index.claim(queue, workerId, n, leaseSeconds, agingMillis); }
+  @Override public void releaseLeases(Collection<String> ids, String workerId){ index.releaseLeases(ids, workerId); }
+
+  // Also compacts: the lease sweeper calls this every few seconds.
+  @Override public int expireLeases(){
+    int n = index.expireLeases();
+    if (journal.segmentCount() > compactedAt + COMPACT_AFTER_SEGMENTS) compact();
+    return n;
+  }
+
+  @Override public CompletableFuture<Void> markCompleted(Job job, int exitCode, String stdoutTail, CommandExecutor.OutputStats stats){
+    index.markCompleted(job, exitCode, stdoutTail, stats);
+    return journal.sync();
+  }
+
+  @Override public CompletableFuture<Void> retry(Job job, int attempts, long runAfter, int exitCode, String error, CommandExecutor.OutputStats stats){
+    index.retry(job, attempts, runAfter, exitCode, error, stats);
+    return journal.sync();
+  }
+
+  @Override public CompletableFuture<Void> moveToDlq(Job job, int exitCode, String error, CommandExecutor.OutputStats stats){
+    index.moveToDlq(job, exitCode, error, stats);
+    return journal.sync();
+  }
+
+  @Override public void retryFromDlq(String id){ index.retryFromDlq(id); journal.sync().join(); }
+  @Override public CompletableFuture<Void> appendLogs(String jobId, List<CommandExecutor.Chunk> chunks){ return index.appendLogs(jobId, chunks); }
+
+  @Override public JobService.Backlog backlog(String queue, int cap){ return index.backlog(queue, cap); }
+  @Override public OptionalLong nextRunAfter(String queue, long afterMillis){ return index.nextRunAfter(queue, afterMillis); }
+  @Override public Map<String,Map<String,Long>> countsByQueue(){ return index.countsByQueue(); }
+  @Override public List<Job> list(String state, int limit){ return index.list(state, limit); }
+  @Override public List<Map<String,Object>> listDlq(){ return index.listDlq(); }
+  @Override public Optional<JobState> state(String id){ return index.state(id); }
+  @Override public boolean contains(String id){ return index.contains(id); }
+  @Override public List<JobService.LogEntry> logsAfter(String jobId, long afterId, int limit){ return index.logsAfter(jobId, afterId, limit); }
+  @Override public List<String> logs(String jobId, int limit){ return index.logs(jobId, limit); }
+
+  // Jobs of the queue that are not completed: what the journal would strand if the queue moved to another store.
+  public long unfinished(String queue){ return JobService.unfinished(countsByQueue().getOrDefault(queue, Map.of())); }
+
+  // The same count for the journal at dir, opened just to read it; fails while a daemon has it open.
+  public static long unfinished(Path dir, String queue){
+    if (!Files.isDirectory(dir)) return 0;
+    try (JournalJobStore j = new JournalJobStore(dir, Instant::now, new WorkNotifier(), new LatencyHistogram())) { return j.unfinished(queue); }
+  }
+
+  // Rewrites the journal as one record per job that is not completed; waiting jobs keep their open dependencies.
+  public void compact(){
+    journal.rewrite(out -> {
+      Map<String, List<String>> parents = index.parents();
+      for (Job j: index.jobs()) {
+        if (j.state() == JobState.completed) continue;
+        List<String> open = parents.get(j.id());
+        out.accept(open == null ? encode(CHANGED, j, null) : encode(INSERTED, j, open));
+      }
+    });
+    compactedAt = journal.segmentCount();
+  }
+
+  @Override public void close(){ journal.close(); }
+
+  // ----- record format: type, job fields, then the dependency ids of an INSERTED record -----
+  private static byte[] encode(byte type, Job j, List<String> dependsOn){
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(type);
+      str(out, j.id()); str(out, j.queue()); str(out, j.command()); str(out, j.args()); str(out, j.state().name());
+      out.writeInt(j.attempts()); out.writeInt(j.maxRetries()); out.writeInt(j.priority()); out.writeInt(j.timeoutSec());
+      str(out, j.idempotencyKey());
+      out.writeLong(j.createdAtMillis()); out.writeLong(j.updatedAtMillis()); out.writeLong(j.runAfterMillis()); out.writeLong(j.leaseUntilMillis());
+      str(out, j.workerId());
+      out.writeBoolean(j.lastExitCode() != null); out.writeInt(j.lastExitCode() == null ? 0 : j.lastExitCode());
+      str(out, j.lastError());
+      if (type == INSERTED) { out.writeInt(dependsOn.size()); for (String d: dependsOn) str(out, d); }
+    } catch (IOException e) { throw new UncheckedIOException(e); }
+    return bytes.toByteArray();
+  }
+
+  private static Job readJob(ByteBuffer b){
+    String id = str(b), queue = str(b), command = str(b), args = str(b);
+    JobState state = JobState.valueOf(str(b));
+    int attempts = b.getInt(), maxRetries = b.getInt(), priority = b.getInt(), timeoutSec = b.getInt();
+    String idk = str(b);
+    long created = b.getLong(), updated = b.getLong(), runAfter = b.getLong(), leaseUntil = b.getLong();
+    String workerId = str(b);
+    boolean hasExit = b.get() != 0; int exit = b.getInt();
+    String error = str(b);
+    return new Job(id, queue, command, args, state, attempts, maxRetries, priority, timeoutSec, idk,
+      created, updated, runAfter, leaseUntil, workerId, hasExit ? exit : null, error);
+  }
+
+  private static List<String> readIds(ByteBuffer b){
+    int n = b.getInt();
+    List<String> ids = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) ids.add(str(b));
+    return ids;
+  }
+
+  // length-prefixed UTF-8, -1 for null
+  private static void str(DataOutputStream out, String s) throws IOException {
+    if (s == null) { out.writeInt(-1); return; }
+    byte[] v = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(v.length); out.write(v);
+  }
+
+  private static String str(ByteBuffer b){
+    int n = b.getInt();
+    if (n < 0) return null;
+    byte[] v = new byte[n];
+    b.get(v);
+    return new String(v, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,54 @@
+package com.queuectl.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of nanosecond durations: 8 sub-buckets per power of two, so any
+ * reported percentile is within 12.5% of the true value. Recording is two atomic adds and no allocation.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BITS = 3, SUB = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong(), sum = new AtomicLong();
+
+  public void record(long nanos){
+    long v = Math.max(0, nanos);
+    counts.incrementAndGet(index(v));
+    total.incrementAndGet(); sum.addAndGet(v);
+  }
+
+  static int index(long v){
+    if (v < SUB) return (int)v;
+    int e = 63 - Long.numberOfLeadingZeros(v);  // v in [2^e, 2^(e+1))
+    int sub = (int)(v >>> (e - SUB_BITS)) & (SUB - 1);
+    return (e - SUB_BITS + 1) * SUB + sub;
+  }
+
+  // Largest value that falls in bucket i.
+  public static long upperBound(int i){
+    if (i < SUB) return i;
+    int e = i / SUB + SUB_BITS - 1, sub = i % SUB;
+    long lo = (1L << e) + ((long)sub << (e - SUB_BITS));
+    return e == 62 && sub == SUB - 1 ? Long.MAX_VALUE : lo + (1L << (e - SUB_BITS)) - 1;
+  }
+
+  public static int buckets(){ return BUCKETS; }
+  public long count(int bucket){ return counts.get(bucket); }
+  public long count(){ return total.get(); }
+  public long sumNanos(){ return sum.get(); }
+
+  // Upper bound of the bucket holding quantile q (0..1); 0 when empty.
+  public long percentile(double q){
+    long n = total.get();
+    if (n == 0) return 0;
+    long rank = Math.max(1, (long)Math.ceil(q * n)), seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) return upperBound(i);
+    }
+    return upperBound(BUCKETS - 1);
+  }
+}
@@ -0,0 +1,411 @@
+package com.queuectl.core;
+
+import com.queuectl.model.Job;
+import com.queuectl.model.JobState;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Heap-only JobStore for ephemeral queues: nothing is written to disk and everything is lost with the
+ * process. Per queue, ready jobs sit in one skip list per priority level, oldest first, and
+ * delayed ones in a skip list by run_after; state changes are compute() calls on the job map, so the
+ * claim path takes no locks. Set entries can go stale; the job map is authoritative and stale entries
+ * are dropped when polled.
+ */
+public final class MemoryJobStore implements JobStore {
+  private static final int RETAIN_COMPLETED = 10_000; // for list, logs and late depends_on; counters keep the totals
+  private static final int MAX_LOG_ENTRIES = 1_000;   // per job, oldest dropped first
+
+  private static final Comparator<Job> AGE_ORDER = Comparator.comparingLong(Job::createdAtMillis).thenComparing(Job::id);
+  private static final Comparator<Job> DUE_ORDER = Comparator.comparingLong(Job::runAfterMillis).thenComparing(Job::id);
+
+  private static final class Lane {
+    final Ready ready = new Ready();
+    final ConcurrentSkipListSet<Job> delayed = new ConcurrentSkipListSet<>(DUE_ORDER);
+    final Map<JobState, LongAdder> counts = new EnumMap<>(JobState.class);
+    Lane(){ for (JobState s: JobState.values()) counts.put(s, new LongAdder()); }
+  }
+
+  // Ready jobs by priority level. Within a level the oldest job is also the most aged, so the next job in
+  // JobStore.claimOrder is always one of the level heads; there are only as many levels as priorities in use.
+  private static final class Ready implements Iterable<Job> {
+    private final ConcurrentSkipListMap<Integer, ConcurrentSkipListSet<Job>> levels = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+
+    void add(Job j){ levels.computeIfAbsent(j.priority(), p -> new ConcurrentSkipListSet<>(AGE_ORDER)).add(j); }
+    boolean remove(Job j){ ConcurrentSkipListSet<Job> s = levels.get(j.priority()); return s != null && s.remove(j); }
+
+    Job poll(long agingMillis){
+      while (true) {
+        Job best = null;
+        long bestKey = Long.MAX_VALUE;
+        for (ConcurrentSkipListSet<Job> s: levels.values()) {
+          Job h = first(s);
+          if (h == null) continue;
+          if (agingMillis <= 0) { best = h; break; }
+          long key = h.createdAtMillis() - h.priority() * agingMillis;
+          if (key < bestKey) { best = h; bestKey = key; }
+        }
+        if (best == null || remove(best)) return best; // lost a race for the head: look again
+      }
+    }
+
+    @Override public Iterator<Job> iterator(){ return levels.values().stream().flatMap(Collection::stream).iterator(); }
+  }
+
+  // Sees every change in order per job, before the job can move on; JournalJobStore logs them.
+  interface Changes {
+    void inserted(Job job, List<String> dependsOn);
+    void changed(Job job);
+  }
+  private static final Changes IGNORE = new Changes() {
+    public void inserted(Job job, List<String> dependsOn){}
+    public void changed(Job job){}
+  };
+
+  private final Clock clock;
+  private final WorkNotifier notifier;
+  private final Changes changes;
+  private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+  private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+  private final Set<String> leased = ConcurrentHashMap.newKeySet();
+  private final Map<String, String> idempotency = new ConcurrentHashMap<>(); // queue + '\0' + key -> id
+  private final Map<String, List<String>> children = new ConcurrentHashMap<>(); // parent -> dependants not yet released
+  private final Map<String, AtomicInteger> unmet = new ConcurrentHashMap<>();
+  private final Map<String, Map<String,Object>> dlq = new ConcurrentHashMap<>();
+  private final Map<String, Deque<JobService.LogEntry>> logs = new ConcurrentHashMap<>();
+  private final AtomicLong logIds = new AtomicLong();
+  private final Queue<String> completed = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger completedRetained = new AtomicInteger();
+
+  public MemoryJobStore(Clock clock, WorkNotifier notifier){ this(clock, notifier, IGNORE); }
+  MemoryJobStore(Clock clock, WorkNotifier notifier, Changes changes){ this.clock=clock; this.notifier=notifier; this.changes=changes; }
+
+  private Lane lane(String queue){ return lanes.computeIfAbsent(queue, q -> new Lane()); }
+
+  @Override public void insert(NewJob n){
+    for (String d: n.dependsOn()) if (!jobs.containsKey(d)) throw new IllegalArgumentException("Unknown dependency: "+d);
+    long now = clock.millis();
+    Job job = new Job(n.id(), n.queue(), n.command(), n.args(), JobState.pending, 0, n.maxRetries(), n.priority(), n.timeoutSec(),
+      n.idempotencyKey(), now, now, n.runAfter(), 0, null, null, null);
+    String idk = n.idempotencyKey() == null ? null : n.queue() + '\0' + n.idempotencyKey();
+    if (idk != null && idempotency.putIfAbsent(idk, n.id()) != null) throw new IllegalStateException("Idempotent duplicate for key: "+n.idempotencyKey());
+    if (jobs.putIfAbsent(n.id(), job) != null) {
+      if (idk != null) idempotency.remove(idk, n.id());
+      throw new IllegalStateException("Job id exists: "+n.id());
+    }
+    lane(n.queue()).counts.get(JobState.pending).increment();
+    if (n.dependsOn().isEmpty()) { changes.inserted(job, List.of()); schedule(job); return; }
+    // the guard count of 1 keeps a parent completing mid-link from releasing the job early
+    AtomicInteger waiting = new AtomicInteger(1);
+    unmet.put(n.id(), waiting);
+    for (String d: n.dependsOn()) {
+      children.compute(d, (p, list) -> {
+        Job parent = jobs.get(p);
+        if (parent != null && parent.state() == JobState.completed) return list;
+        waiting.incrementAndGet();
+        List<String> l = list == null ? new ArrayList<>(2) : list;
+        l.add(n.id());
+        return l;
+      });
+    }
+    changes.inserted(job, n.dependsOn());
+    release(n.id(), waiting);
+  }
+
+  @Override public CompletableFuture<Void> adopt(Job j){
+    if (j.idempotencyKey() != null) idempotency.putIfAbsent(j.queue() + '\0' + j.idempotencyKey(), j.id());
+    if (jobs.putIfAbsent(j.id(), j) != null) return CompletableFuture.completedFuture(null);
+    lane(j.queue()).counts.get(JobState.pending).increment();
+    changes.inserted(j, List.of());
+    schedule(j);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override public List<Job> claim(String queue, String workerId, int n, int leaseSeconds, long agingMillis){
+    long now = clock.millis();
+    Lane l = lane(queue);
+    promote(l, now);
+    List<Job> out = new ArrayList<>(Math.min(n, 64));
+    long leaseUntil = now + leaseSeconds*1000L;
+    Job j;
+    // ready only holds jobs that were due when scheduled; re-checking run_after against now would drop one scheduled mid-loop
+    while (out.size() < n && (j = l.ready.poll(agingMillis)) != null) {
+      Job got = transition(j.id(), cur -> cur.state() == JobState.pending && !unmet.containsKey(cur.id()),
+        cur -> with(cur, JobState.processing, cur.attempts(), cur.runAfterMillis(), leaseUntil, workerId, cur.lastExitCode(), cur.lastError(), now));
+      if (got != null) out.add(got);
+    }
+    return out;
+  }
+
+  @Override public void releaseLeases(Collection<String> ids, String workerId){
+    if (ids.isEmpty()) return;
+    long now = clock.millis();
+    for (String id: ids) requeue(id, cur -> cur.state() == JobState.processing && workerId.equals(cur.workerId()), now);
+    notifier.signalAll();
+  }
+
+  @Override public int expireLeases(){
+    long now = clock.millis();
+    int n = 0;
+    for (String id: leased) {
+      if (requeue(id, cur -> cur.state() == JobState.processing && cur.leaseUntilMillis() != 0 && cur.leaseUntilMillis() < now, now) != null) n++;
+    }
+    if (n > 0) notifier.signalAll();
+    return n;
+  }
+
+  private Job requeue(String id, Predicate<Job> when, long now){
+    Job back = transition(id, when, cur -> with(cur, JobState.pending, cur.attempts(), cur.runAfterMillis(), 0, null, cur.lastExitCode(), cur.lastError(), now));
+    if (back != null) schedule(back);
+    return back;
+  }
+
+  // The run's writes land only while it still holds the lease: after it expired the job may be pending again
+  // or leased by another worker, and then the late write is dropped.
+  private static Predicate<Job> held(Job job){
+    return cur -> cur.state() == JobState.processing && Objects.equals(cur.workerId(), job.workerId());
+  }
+
+  @Override public CompletableFuture<Void> markCompleted(Job job, int exitCode, String stdoutTail, CommandExecutor.OutputStats stats){
+    long now = clock.millis();
+    String id = job.id();
+    Job done = transition(id, held(job),
+      cur -> with(cur, JobState.completed, cur.attempts(), cur.runAfterMillis(), 0, cur.workerId(), exitCode, cur.lastError(), now));
+    if (done == null) return CompletableFuture.completedFuture(null);
+    if (stdoutTail != null && !stdoutTail.isEmpty()) log(id, "stdout", stdoutTail);
+    List<String> waiting = children.remove(id);
+    if (waiting != null) for (String c: waiting) { AtomicInteger u = unmet.get(c); if (u != null) release(c, u); }
+    retain(id);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override public CompletableFuture<Void> retry(Job job, int next, long nextRun, int exitCode, String error, CommandExecutor.OutputStats stats){
+    long now = clock.millis();
+    Job back = transition(job.id(), held(job),
+      cur -> with(cur, JobState.pending, next, nextRun, 0, null, exitCode, null, now));
+    if (back == null) return CompletableFuture.completedFuture(null);
+    if (stats == null) log(job.id(), "stderr", truncate(error, 1024)); // with stats the run streamed its stderr already
+    schedule(back);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override public CompletableFuture<Void> moveToDlq(Job job, int exitCode, String error, CommandExecutor.OutputStats stats){
+    long now = clock.millis();
+    Job dead = transition(job.id(), held(job),
+      cur -> with(cur, JobState.dead, cur.attempts(), cur.runAfterMillis(), 0, cur.workerId(), exitCode, truncate(error, 2048), now));
+    if (dead == null) return CompletableFuture.completedFuture(null);
+    dlq.put(job.id(), dlqEntry(dead));
+    return CompletableFuture.completedFuture(null);
+  }
+
+  private static Map<String,Object> dlqEntry(Job dead){
+    Map<String,Object> m = new LinkedHashMap<>();
+    m.put("id", dead.id()); m.put("queue", dead.queue()); m.put("command", dead.command());
+    m.put("attempts", dead.attempts()+1); m.put("last_exit_code", dead.lastExitCode());
+    m.put("last_error", dead.lastError()); m.put("moved_at", dead.updatedAt().toString());
+    return m;
+  }
+
+  @Override public void retryFromDlq(String id){
+    if (dlq.remove(id) == null) throw new IllegalArgumentException("DLQ not found: "+id);
+    long now = clock.millis();
+    Job back = transition(id, cur -> true, cur -> with(cur, JobState.pending, 0, now, 0, null, cur.lastExitCode(), null, now));
+    if (back == null) throw new IllegalStateException("Job row missing for DLQ entry: "+id);
+    schedule(back);
+  }
+
+  @Override public CompletableFuture<Void> appendLogs(String jobId, List<CommandExecutor.Chunk> chunks){
+    String at = clock.now().toString();
+    for (CommandExecutor.Chunk ch: chunks) log(jobId, at, ch.kind(), ch.text());
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override public JobService.Backlog backlog(String queue, int cap){
+    long now = clock.millis();
+    Lane l = lane(queue);
+    promote(l, now);
+    long ready = 0, oldest = 0;
+    for (Job j: l.ready) {
+      if (ready >= cap) break;
+      ready++;
+      if (oldest == 0 || j.runAfterMillis() < oldest) oldest = j.runAfterMillis();
+    }
+    return new JobService.Backlog(ready, oldest);
+  }
+
+  // Ready jobs are due by definition; delayed ones not yet promoted may be too, and are stepped over.
+  @Override public OptionalLong nextRunAfter(String queue, long afterMillis){
+    for (Job d: lane(queue).delayed) if (d.runAfterMillis() > afterMillis) return OptionalLong.of(d.runAfterMillis());
+    return OptionalLong.empty();
+  }
+
+  @Override public Map<String,Map<String,Long>> countsByQueue(){
+    Map<String,Map<String,Long>> out = new TreeMap<>();
+    lanes.forEach((q, l) -> {
+      Map<String,Long> m = new LinkedHashMap<>();
+      for (JobState s: JobState.values()) m.put(s.name(), l.counts.get(s).sum());
+      out.put(q, m);
+    });
+    return out;
+  }
+
+  @Override public List<Job> list(String state, int limit){
+    return jobs.values().stream().filter(j -> j.state().name().equals(state))
+      .sorted(Comparator.comparingLong(Job::createdAtMillis).reversed()).limit(limit).toList();
+  }
+
+  @Override public List<Map<String,Object>> listDlq(){
+    return dlq.values().stream()
+      .sorted(Comparator.comparing((Map<String,Object> m) -> (String)m.get("moved_at")).reversed())
+      .map(m -> { Map<String,Object> row = new LinkedHashMap<>(m); row.remove("last_error"); row.remove("moved_at"); return row; })
+      .toList();
+  }
+
+  @Override public Optional<JobState> state(String id){ return Optional.ofNullable(jobs.get(id)).map(Job::state); }
+
+  @Override public boolean contains(String id){ return jobs.containsKey(id) || dlq.containsKey(id); }
+
+  @Override public List<JobService.LogEntry> logsAfter(String jobId, long afterId, int limit){
+    Deque<JobService.LogEntry> d = logs.get(jobId);
+    if (d == null) return List.of();
+    List<JobService.LogEntry> out = new ArrayList<>();
+    for (JobService.LogEntry e: d) if (e.id() > afterId && out.size() < limit) out.add(e);
+    return out;
+  }
+
+  @Override public List<String> logs(String jobId, int limit){
+    Deque<JobService.LogEntry> d = logs.get(jobId);
+    if (d == null) return List.of();
+    List<String> out = new ArrayList<>();
+    for (Iterator<JobService.LogEntry> it = d.descendingIterator(); it.hasNext() && out.size() < limit; ) {
+      JobService.LogEntry e = it.next();
+      out.add(e.createdAt()+" "+e.kind()+" "+e.content().stripTrailing());
+    }
+    return out;
+  }
+
+  // Loads jobs recovered from elsewhere into an unused store. parents maps a waiting job to the
+  // dependencies it was still waiting on; ones that are gone or completed count as met.
+  void restore(Collection<Job> recovered, Map<String, List<String>> parents){
+    for (Job j: recovered) {
+      jobs.put(j.id(), j);
+      lane(j.queue()).counts.get(j.state()).increment();
+      if (j.idempotencyKey() != null) idempotency.put(j.queue() + '\0' + j.idempotencyKey(), j.id());
+      switch (j.state()) {
+        case processing -> leased.add(j.id());
+        case dead -> dlq.put(j.id(), dlqEntry(j));
+        case completed -> retain(j.id());
+        default -> {}
+      }
+    }
+    for (Job j: recovered) {
+      if (j.state() != JobState.pending) continue;
+      List<String> open = new ArrayList<>();
+      for (String p: parents.getOrDefault(j.id(), List.of())) {
+        Job parent = jobs.get(p);
+        if (parent != null && parent.state() != JobState.completed) open.add(p);
+      }
+      if (open.isEmpty()) { schedule(j); continue; }
+      unmet.put(j.id(), new AtomicInteger(open.size()));
+      for (String p: open) children.computeIfAbsent(p, k -> new ArrayList<>(2)).add(j.id());
+    }
+  }
+
+  Collection<Job> jobs(){ return Collections.unmodifiableCollection(jobs.values()); }
+
+  // Waiting job -> dependencies it has not been released from yet.
+  Map<String, List<String>> parents(){
+    Map<String, List<String>> out = new HashMap<>();
+    for (String p: children.keySet()) {
+      children.computeIfPresent(p, (k, kids) -> {
+        for (String c: kids) out.computeIfAbsent(c, x -> new ArrayList<>(2)).add(k);
+        return kids;
+      });
+    }
+    return out;
+  }
+
+  // ----- helpers -----
+  // Applies fn when the current version satisfies when; returns the new version, or null when nothing changed.
+  private Job transition(String id, Predicate<Job> when, UnaryOperator<Job> fn){
+    Job[] out = new Job[2];
+    jobs.computeIfPresent(id, (k, cur) -> {
+      if (!when.test(cur)) return cur;
+      out[0] = cur; out[1] = fn.apply(cur);
+      changes.changed(out[1]);
+      return out[1];
+    });
+    if (out[1] == null) return null;
+    JobState from = out[0].state(), to = out[1].state();
+    if (from != to) {
+      Lane l = lane(out[1].queue());
+      l.counts.get(from).decrement(); l.counts.get(to).increment();
+      if (to == JobState.processing) leased.add(id); else if (from == JobState.processing) leased.remove(id);
+    }
+    return out[1];
+  }
+
+  private void release(String id, AtomicInteger waiting){
+    if (waiting.decrementAndGet() != 0) return;
+    unmet.remove(id);
+    Job j = jobs.get(id);
+    if (j != null) schedule(j);
+  }
+
+  private void schedule(Job j){
+    Lane l = lane(j.queue());
+    if (j.runAfterMillis() > clock.millis()) { l.delayed.add(j); return; } // JobService's DueWakeups signals it when due
+    l.ready.add(j);
+    notifier.signal(j.queue());
+  }
+
+  // Moves delayed jobs that are now due into the ready set.
+  private static void promote(Lane l, long now){
+    Job d;
+    while ((d = l.delayed.pollFirst()) != null) {
+      if (d.runAfterMillis() > now) { l.delayed.add(d); return; }
+      l.ready.add(d);
+    }
+  }
+
+  private void retain(String id){
+    completed.add(id);
+    if (completedRetained.incrementAndGet() <= RETAIN_COMPLETED) return;
+    String old = completed.poll();
+    if (old == null) return;
+    completedRetained.decrementAndGet();
+    Job gone = jobs.get(old);
+    if (gone == null || gone.state() != JobState.completed || children.containsKey(old)) return;
+    jobs.remove(old, gone);
+    logs.remove(old);
+    if (gone.idempotencyKey() != null) idempotency.remove(gone.queue() + '\0' + gone.idempotencyKey(), old);
+  }
+
+  private void log(String jobId, String kind, String content){ log(jobId, clock.now().toString(), kind, content); }
+
+  private void log(String jobId, String at, String kind, String content){
+    Deque<JobService.LogEntry> d = logs.computeIfAbsent(jobId, k -> new ConcurrentLinkedDeque<>());
+    d.add(new JobService.LogEntry(logIds.incrementAndGet(), at, kind, content));
+    while (d.size() > MAX_LOG_ENTRIES) d.pollFirst();
+  }
+
+  private static Job first(ConcurrentSkipListSet<Job> s){ try { return s.first(); } catch (NoSuchElementException e){ return null; } }
+
+  private static Job with(Job j, JobState state, int attempts, long runAfter, long leaseUntil, String workerId, Integer exit, String error, long now){
+    return new Job(j.id(), j.queue(), j.command(), j.args(), state, attempts, j.maxRetries(), j.priority(), j.timeoutSec(),
+      j.idempotencyKey(), j.createdAtMillis(), now, runAfter, leaseUntil, workerId, exit, error);
+  }
+
+  private static String truncate(String s, int n){ if(s==null) return null; return s.length()>n? s.substring(0,n):s; }
+}
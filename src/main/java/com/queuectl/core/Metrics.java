@@ -0,0 +1,46 @@
+package com.queuectl.core;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-stage, per-queue latency histograms for the daemon. Callers on hot paths resolve their
+ * histogram once and keep it; recording is then a LatencyHistogram.record with no lookup.
+ */
+public final class Metrics {
+  public enum Stage {
+    CLAIM("queuectl_claim_seconds", "Duration of a batch claim statement"),
+    QUEUE_WAIT("queuectl_queue_wait_seconds", "Time from run_after until a worker claimed the job"),
+    EXECUTION("queuectl_execution_seconds", "Job run time, from start until the command or handler exited"),
+    RATE_LIMIT_STALL("queuectl_rate_limit_stall_seconds", "Time a worker slept waiting for a rate-limit permit"),
+    SPAWN("queuectl_process_spawn_seconds", "Time to fork a job's shell process"),
+    SLOT_WAIT("queuectl_slot_wait_seconds", "Time a worker waited for a queue concurrency slot"),
+    DB_TX("queuectl_db_transaction_seconds", "Write transaction time, one sample per commit"),
+    CONNECTION_WAIT("queuectl_db_connection_wait_seconds", "Time spent acquiring a pooled connection"),
+    JOURNAL_SYNC("queuectl_journal_fsync_seconds", "Journal segment fsync time, one sample per group sync");
+
+    public final String metric, help;
+    Stage(String metric, String help){ this.metric=metric; this.help=help; }
+  }
+
+  private static final String NONE = ""; // stages that are not per queue
+
+  private final Map<Stage, Map<String, LatencyHistogram>> histograms = new EnumMap<>(Stage.class);
+  private final LongAdder connectionTimeouts = new LongAdder();
+
+  public Metrics(){ for (Stage s: Stage.values()) histograms.put(s, new ConcurrentHashMap<>()); }
+
+  public LatencyHistogram histogram(Stage stage, String queue){
+    return histograms.get(stage).computeIfAbsent(queue == null ? NONE : queue, q -> new LatencyHistogram());
+  }
+
+  public LatencyHistogram histogram(Stage stage){ return histogram(stage, null); }
+
+  // Queue label -> histogram; the empty label marks a stage that is not broken down by queue.
+  public Map<String, LatencyHistogram> histograms(Stage stage){ return histograms.get(stage); }
+
+  public void connectionTimeout(){ connectionTimeouts.increment(); }
+  public long connectionTimeouts(){ return connectionTimeouts.sum(); }
+}
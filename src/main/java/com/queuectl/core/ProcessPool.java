@@ -0,0 +1,171 @@
+package com.queuectl.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived executor processes for one queue, so interpreter startup is paid once per child
+ * rather than once per job. Each child reads one JSON request per line on stdin,
+ * {"id":..,"command":..,"timeout_sec":..}, and answers on stdout with any number of
+ * {"stdout":".."} / {"stderr":".."} lines followed by {"exit_code":N}. Replies may echo the request's
+ * "id"; one carrying another job's id is dropped, as are lines left over from a finished job. Non-JSON
+ * stdout lines count as the job's stdout; the child's stderr goes to whichever job is running when it
+ * is read. A child that times out or dies is killed and replaced on the next borrow.
+ */
+public final class ProcessPool implements AutoCloseable {
+  private static final ObjectMapper JSON = new ObjectMapper();
+  private static final Map<String,Object> EOF = Map.of();
+
+  private final String command;
+  private final ThreadFactory readers;
+  private final Semaphore slots;
+  private final ConcurrentLinkedQueue<Child> idle = new ConcurrentLinkedQueue<>();
+  private final List<Child> all = new ArrayList<>();
+  private volatile boolean closed;
+
+  public ProcessPool(String command, int size, ThreadFactory readers){
+    this.command = command; this.readers = readers; this.slots = new Semaphore(Math.max(1, size));
+  }
+
+  private final class Child {
+    final Process p;
+    final OutputStream in;
+    final BlockingQueue<Map<String,Object>> replies = new LinkedBlockingQueue<>();
+    volatile CommandExecutor.StreamCollector err; // the running job's stderr, null while idle
+
+    Child() throws IOException {
+      p = new ProcessBuilder("/bin/sh","-c", command).start();
+      in = p.getOutputStream();
+      readers.newThread(this::readReplies).start();
+      readers.newThread(this::readStderr).start();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readReplies(){
+      try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = r.readLine()) != null) {
+          Map<String,Object> m;
+          try { m = line.startsWith("{") ? JSON.readValue(line, Map.class) : Map.of("stdout", line + "\n"); }
+          catch (IOException e) { m = Map.of("stdout", line + "\n"); }
+          replies.add(m);
+        }
+      } catch (IOException ignored) {
+      } finally { replies.add(EOF); }
+    }
+
+    private void readStderr(){
+      byte[] buf = new byte[8192];
+      try (InputStream e = p.getErrorStream()) {
+        int n;
+        while ((n = e.read(buf)) > 0) { var c = err; if (c != null) c.accept(buf, 0, n); }
+      } catch (IOException ignored) {}
+    }
+
+    // Drops replies left over from an earlier job; false once the child has exited.
+    boolean drain(){
+      Map<String,Object> m;
+      while ((m = replies.poll()) != null) if (m == EOF) return false;
+      return true;
+    }
+
+    void send(Map<String,Object> req) throws IOException {
+      in.write(JSON.writeValueAsBytes(req)); in.write('\n'); in.flush();
+    }
+  }
+
+  public CommandExecutor.Result run(String jobId, String cmd, int timeoutSec, CommandExecutor.Capture capture,
+                                    Consumer<List<CommandExecutor.Chunk>> sink) throws InterruptedException {
+    var out = new CommandExecutor.StreamCollector(capture, sink != null);
+    var err = new CommandExecutor.StreamCollector(capture, sink != null);
+    slots.acquire();
+    Child ch = null;
+    boolean reusable = false;
+    try {
+      ch = borrow();
+      ch.err = err;
+      Map<String,Object> req = new LinkedHashMap<>();
+      req.put("id", jobId); req.put("command", cmd); req.put("timeout_sec", timeoutSec);
+      ch.send(req);
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSec);
+      while (true) {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) return finish(124, out, err, sink, true);
+        Map<String,Object> m = ch.replies.poll(Math.min(left, TimeUnit.MILLISECONDS.toNanos(CommandExecutor.FLUSH_MILLIS)), TimeUnit.NANOSECONDS);
+        if (m == null) { CommandExecutor.flush(sink, out, err, false); continue; }
+        if (m == EOF) {
+          int code = ch.p.waitFor(1, TimeUnit.SECONDS) ? ch.p.exitValue() : 1;
+          write(err, "[executor exited with " + code + "]\n");
+          return finish(code == 0 ? 1 : code, out, err, sink, false);
+        }
+        if (m.get("id") instanceof String rid && !rid.equals(jobId)) continue; // late reply to an earlier job
+        if (m.get("stdout") instanceof String s) write(out, s);
+        if (m.get("stderr") instanceof String s) write(err, s);
+        if (m.get("exit_code") instanceof Number n) { reusable = true; return finish(n.intValue(), out, err, sink, false); }
+      }
+    } catch (IOException e) {
+      write(err, "[executor unavailable: " + e.getMessage() + "]\n");
+      return finish(1, out, err, sink, false);
+    } finally {
+      if (ch != null) {
+        ch.err = null;
+        if (reusable && !closed) idle.add(ch); else kill(ch);
+      }
+      slots.release();
+    }
+  }
+
+  private Child borrow() throws IOException {
+    Child ch;
+    while ((ch = idle.poll()) != null) { if (ch.p.isAlive() && ch.drain()) return ch; kill(ch); }
+    ch = new Child();
+    synchronized (all) { all.add(ch); }
+    return ch;
+  }
+
+  private void kill(Child ch){
+    ch.p.destroyForcibly();
+    synchronized (all) { all.remove(ch); }
+  }
+
+  private static void write(CommandExecutor.StreamCollector c, String s){
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    if (b.length > 0) c.accept(b, 0, b.length);
+  }
+
+  private static CommandExecutor.Result finish(int code, CommandExecutor.StreamCollector out, CommandExecutor.StreamCollector err,
+                                               Consumer<List<CommandExecutor.Chunk>> sink, boolean timedOut){
+    CommandExecutor.flush(sink, out, err, true);
+    return new CommandExecutor.Result(code, out.output(), err.output(), timedOut);
+  }
+
+  // Closing stdin asks idle children to exit; stragglers are killed.
+  @Override
+  public void close(){
+    closed = true;
+    List<Child> children;
+    synchronized (all) { children = new ArrayList<>(all); }
+    for (Child ch: children) { try { ch.in.close(); } catch (IOException ignored) {} }
+    for (Child ch: children) {
+      try { if (!ch.p.waitFor(2, TimeUnit.SECONDS)) ch.p.destroyForcibly(); }
+      catch (InterruptedException e) { ch.p.destroyForcibly(); Thread.currentThread().interrupt(); }
+    }
+  }
+}
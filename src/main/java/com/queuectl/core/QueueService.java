@@ -1,20 +1,167 @@
 package com.queuectl.core;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.sql.DataSource;
 import java.sql.*;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
 
+// Per-queue settings from the queues table; refresh() re-reads them so a running daemon picks up edits.
 public final class QueueService {
+  private static final Logger LOG = LoggerFactory.getLogger(QueueService.class);
+  private static final int DEFAULT_RATE = 50;
   private final DataSource ds;
+  private final WorkNotifier notifier;
   private final Map<String, RateLimiter> limiters = new ConcurrentHashMap<>();
-  public QueueService(DataSource ds){ this.ds=ds; preload(); }
-  private void preload(){
-    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT name, rate_limit_per_sec FROM queues")) {
-      try (ResultSet rs = ps.executeQuery()){ while(rs.next()){ limiters.put(rs.getString(1), new RateLimiter(rs.getInt(2))); } }
+  private final Map<String, ConcurrencyLimit> slots = new ConcurrentHashMap<>();
+  private final Map<String, Boolean> paused = new ConcurrentHashMap<>();
+  private final Map<String, CommandExecutor.Capture> captures = new ConcurrentHashMap<>();
+  private final Map<String, String> executors = new ConcurrentHashMap<>();
+  private final Map<String, Integer> concurrency = new ConcurrentHashMap<>();
+  private final Map<String, String> stores = new ConcurrentHashMap<>();
+  private final Map<String, Integer> weights = new ConcurrentHashMap<>();
+  private final Map<String, Long> aging = new ConcurrentHashMap<>();
+  private final Map<String, Backoff> backoffs = new ConcurrentHashMap<>();
+  private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+  private volatile Backoff defaultBackoff = new Backoff(2, 3600);
+  private final Map<String, String> badRows = new ConcurrentHashMap<>(); // queue -> last problem logged, so each is logged once
+  private final Map<String, AtomicLong> runMillis = new ConcurrentHashMap<>(); // moving average, in-process runs only
+  public QueueService(DataSource ds){ this(ds, new WorkNotifier()); }
+  public QueueService(DataSource ds, WorkNotifier notifier){ this.ds=ds; this.notifier=notifier; refresh(); }
+
+  public void refresh(){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("""
+           SELECT name, rate_limit_per_sec, capture_head_bytes, capture_tail_bytes, executor, concurrency, paused, store, weight, priority_aging_sec,
+                  retry_policy, retry_base_sec, retry_cap_sec, breaker_failure_rate, breaker_window_sec, breaker_min_calls, breaker_open_sec, breaker_probes
+           FROM queues""");
+         PreparedStatement cfg = c.prepareStatement("SELECT value FROM config WHERE key='backoff_base'")) {
+      try (ResultSet rs = cfg.executeQuery()){ if (rs.next()) defaultBackoff = new Backoff(Integer.parseInt(rs.getString(1).trim()), 3600); }
+      catch (NumberFormatException bad){} // keeps the last good base
+      try (ResultSet rs = ps.executeQuery()){ while(rs.next()){
+        String q = rs.getString(1);
+        try { apply(q, rs); }
+        catch (RuntimeException bad){ warnOnce(q, "settings not applied: " + bad); } // other queues still refresh
+      } }
     } catch (Exception ignored){}
   }
+
+  // One queues row; a bad one is logged by refresh() and leaves the others alone.
+  private void apply(String q, ResultSet rs) throws SQLException {
+    RateLimiter l = limiter(q);
+    if (l.ratePerSec() != rs.getInt(2)) l.setRate(rs.getInt(2));
+    captures.put(q, new CommandExecutor.Capture(rs.getInt(3), rs.getInt(4)));
+    if (rs.getString(5) != null) executors.put(q, rs.getString(5)); else executors.remove(q);
+    int conc = rs.getInt(6);
+    concurrency.put(q, conc);
+    ConcurrencyLimit s = slots(q);
+    if (s.limit() != conc) s.setLimit(conc);
+    boolean p = rs.getInt(7) != 0;
+    Boolean was = paused.put(q, p);
+    if (was != null && was && !p) notifier.signal(q); // resumed: wake parked workers
+    stores.put(q, rs.getString(8));
+    weights.put(q, Math.max(1, rs.getInt(9)));
+    aging.put(q, Math.max(0, rs.getLong(10)) * 1000);
+    Backoff.Policy policy = rs.getString(11) == null ? null : parsePolicy(q, rs.getString(11));
+    if (policy != null) backoffs.put(q, new Backoff(policy, rs.getInt(12), rs.getInt(13))); else backoffs.remove(q);
+    breaker(q).configure(new CircuitBreaker.Settings(rs.getDouble(14), rs.getInt(15), rs.getInt(16), rs.getInt(17), rs.getInt(18)));
+  }
+
+  // null, falling back to the default backoff, for a value the CHECK constraint would now reject
+  private Backoff.Policy parsePolicy(String q, String policy){
+    try { return Backoff.Policy.valueOf(policy); }
+    catch (IllegalArgumentException bad){ warnOnce(q, "unknown retry_policy '" + policy + "', using the default backoff"); return null; }
+  }
+
+  private void warnOnce(String q, String problem){
+    if (!problem.equals(badRows.put(q, problem))) LOG.warn("queue {}: {}", q, problem);
+  }
+
+  // Creates the queue or replaces its settings (empty executor: none; null store: keep it, sqlite for a new
+  // queue; null shard: keep the pin, none for a new queue, which hashes the name; null retry: the config
+  // default) and applies them here.
+  public void define(String name, int rate, int concurrency, int headBytes, int tailBytes, String executor, String store, Integer shard, int weight, int agingSec,
+                     Backoff retry, CircuitBreaker.Settings breaker){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("""
+           INSERT INTO queues(name, rate_limit_per_sec, concurrency, paused, capture_head_bytes, capture_tail_bytes, executor, store, shard, weight, priority_aging_sec,
+                              retry_policy, retry_base_sec, retry_cap_sec, breaker_failure_rate, breaker_window_sec, breaker_min_calls, breaker_open_sec, breaker_probes)
+           VALUES(?,?,?,0,?,?,NULLIF(?, ''),COALESCE(?, 'sqlite'),?,?,?,?,?,?,?,?,?,?,?)
+           ON CONFLICT(name) DO UPDATE SET rate_limit_per_sec=excluded.rate_limit_per_sec, concurrency=excluded.concurrency, capture_head_bytes=excluded.capture_head_bytes,
+             capture_tail_bytes=excluded.capture_tail_bytes, executor=excluded.executor, store=COALESCE(?, store), shard=COALESCE(excluded.shard, shard), weight=excluded.weight,
+             priority_aging_sec=excluded.priority_aging_sec, retry_policy=excluded.retry_policy, retry_base_sec=excluded.retry_base_sec, retry_cap_sec=excluded.retry_cap_sec,
+             breaker_failure_rate=excluded.breaker_failure_rate, breaker_window_sec=excluded.breaker_window_sec, breaker_min_calls=excluded.breaker_min_calls,
+             breaker_open_sec=excluded.breaker_open_sec, breaker_probes=excluded.breaker_probes""")) {
+      ps.setString(1, name); ps.setInt(2, rate); ps.setInt(3, concurrency); ps.setInt(4, Math.max(0, headBytes)); ps.setInt(5, Math.max(0, tailBytes)); ps.setString(6, executor); ps.setString(7, store);
+      if (shard == null) ps.setNull(8, Types.INTEGER); else ps.setInt(8, shard);
+      ps.setInt(9, Math.max(1, weight)); ps.setInt(10, Math.max(0, agingSec));
+      ps.setString(11, retry == null ? null : retry.policy().name()); ps.setInt(12, retry == null ? 2 : retry.base()); ps.setInt(13, retry == null ? 3600 : retry.capSeconds());
+      if (breaker == null) breaker = CircuitBreaker.Settings.OFF;
+      ps.setDouble(14, breaker.failureRate()); ps.setInt(15, breaker.windowSec()); ps.setInt(16, breaker.minCalls()); ps.setInt(17, breaker.openSec()); ps.setInt(18, breaker.probes());
+      ps.setString(19, store);
+      ps.executeUpdate();
+    } catch (SQLException e){ throw new RuntimeException(e); }
+    refresh();
+  }
+
+  // Refuses to move a queue off the journal while the journal still holds unfinished jobs of it, which the
+  // new store would never serve; unfinished counts them.
+  public void checkStoreChange(String name, String store, ToLongFunction<String> unfinished){
+    if (store == null || store.equals("journal") || !store(name).equals("journal")) return;
+    long left = unfinished.applyAsLong(name);
+    if (left > 0) throw new IllegalStateException("Queue " + name + " still has " + left + " unfinished jobs in the journal; its store can change once they are done");
+  }
+
+  public void setPaused(String name, boolean p){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("UPDATE queues SET paused=? WHERE name=?")) {
+      ps.setInt(1, p ? 1 : 0); ps.setString(2, name); ps.executeUpdate();
+    } catch (SQLException e){ throw new RuntimeException(e); }
+    refresh();
+  }
+
   public RateLimiter limiter(String queue){
-    return limiters.computeIfAbsent(queue, q -> new RateLimiter(50));
+    return limiters.computeIfAbsent(queue, q -> new RateLimiter(DEFAULT_RATE));
+  }
+  // Queues without a row are not capped beyond their worker count.
+  public ConcurrencyLimit slots(String queue){
+    return slots.computeIfAbsent(queue, q -> new ConcurrencyLimit(0));
+  }
+  public boolean paused(String queue){ return paused.getOrDefault(queue, false); }
+  public CommandExecutor.Capture capture(String queue){
+    return captures.getOrDefault(queue, CommandExecutor.Capture.DEFAULT);
+  }
+  // Persistent executor command for the queue, or null to fork a shell per job.
+  public String executor(String queue){ return executors.get(queue); }
+  public int concurrency(String queue){ return concurrency.getOrDefault(queue, 2); }
+  // Name of the job store serving the queue; only read at daemon start.
+  public String store(String queue){ return stores.getOrDefault(queue, "sqlite"); }
+  // Relative share of a shared worker pool.
+  public int weight(String queue){ return weights.getOrDefault(queue, 1); }
+  // Waiting time worth one priority level when claiming; 0 for strict priority order.
+  public long agingMillis(String queue){ return aging.getOrDefault(queue, 300_000L); }
+  // Retry spacing for the queue's failed jobs: its own policy, else exponential on config backoff_base.
+  public Backoff backoff(String queue){ return backoffs.getOrDefault(queue, defaultBackoff); }
+  public CircuitBreaker breaker(String queue){
+    return breakers.computeIfAbsent(queue, q -> new CircuitBreaker(() -> notifier.signal(q)));
+  }
+  // Breakers that are switched on, by queue.
+  public Map<String, CircuitBreaker.Snapshot> breakers(){
+    Map<String, CircuitBreaker.Snapshot> out = new TreeMap<>();
+    breakers.forEach((q, b) -> { if (b.enabled()) out.put(q, b.snapshot()); });
+    return out;
+  }
+
+  // Exponential moving average (1/8 weight) of job run time.
+  public void observeRun(String queue, long millis){
+    AtomicLong avg = runMillis.computeIfAbsent(queue, q -> new AtomicLong(-1));
+    avg.getAndUpdate(a -> a < 0 ? millis : a + (millis - a) / 8);
+  }
+  // -1 until a job of the queue has run here.
+  public long avgRunMillis(String queue){
+    AtomicLong avg = runMillis.get(queue);
+    return avg == null ? -1 : avg.get();
   }
 }
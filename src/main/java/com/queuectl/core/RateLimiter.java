@@ -1,13 +1,79 @@
 package com.queuectl.core;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket held as one "theoretical arrival time" in nanoseconds (GCRA): each permit
+ * pushes it one interval later, and a request fits while that stays within a second's burst of now.
+ * UNLIMITED (any negative rate) lets everything through; a rate of 0 lets one permit through and then
+ * none until the rate changes.
+ */
 public final class RateLimiter {
-  private final int capacity; private final double refillPerSec; private double tokens; private long lastNanos;
-  public RateLimiter(int ratePerSec){ this.capacity=Math.max(1,ratePerSec); this.refillPerSec=ratePerSec; this.tokens=capacity; this.lastNanos=System.nanoTime(); }
-  public synchronized boolean tryAcquire(){
-    long now=System.nanoTime();
-    double add=((now-lastNanos)/1_000_000_000.0)*refillPerSec;
-    tokens=Math.min(capacity, tokens+add); lastNanos=now;
-    if(tokens>=1.0){ tokens-=1.0; return true; }
-    return false;
+  public static final int UNLIMITED = -1;
+  private static final long RECHECK_NANOS = 1_000_000_000L; // rate 0: how long a stalled caller waits before looking again
+
+  private record Rate(int perSec, long intervalNanos, long burstNanos) {}
+
+  private volatile Rate rate;
+  private final AtomicLong tat = new AtomicLong(System.nanoTime());
+  private final AtomicBoolean spent = new AtomicBoolean(); // rate 0: its one permit is taken
+
+  public RateLimiter(int ratePerSec){ setRate(ratePerSec); }
+
+  public int ratePerSec(){ return rate.perSec(); }
+
+  public void setRate(int ratePerSec){
+    int perSec = ratePerSec < 0 ? UNLIMITED : ratePerSec;
+    long interval = perSec > 0 ? 1_000_000_000L / perSec : 0;
+    Rate was = rate;
+    rate = new Rate(perSec, interval, interval * perSec);
+    if (was == null || was.perSec() != perSec) spent.set(false);
+  }
+
+  public boolean tryAcquire(){ return tryAcquire(1); }
+
+  // All n permits or none.
+  public boolean tryAcquire(int n){
+    Rate r = rate;
+    if (r.perSec() == UNLIMITED) return true;
+    if (r.perSec() == 0) return n == 1 && spent.compareAndSet(false, true);
+    while (true) {
+      long now = System.nanoTime(), t = tat.get();
+      long next = Math.max(t - now, 0) + now + n * r.intervalNanos();
+      if (next - now > r.burstNanos()) return false;
+      if (tat.compareAndSet(t, next)) return true;
+    }
+  }
+
+  // Takes as many permits as are available, up to n; returns how many (0 when rate-limited).
+  public int acquireUpTo(int n){
+    Rate r = rate;
+    if (r.perSec() == UNLIMITED) return n;
+    if (r.perSec() == 0) return n > 0 && spent.compareAndSet(false, true) ? 1 : 0;
+    while (true) {
+      long now = System.nanoTime(), t = tat.get();
+      long ahead = Math.max(t - now, 0);
+      int k = (int)Math.min(n, (r.burstNanos() - ahead) / r.intervalNanos());
+      if (k <= 0) return 0;
+      if (tat.compareAndSet(t, now + ahead + k * r.intervalNanos())) return k;
+    }
+  }
+
+  // Hands back permits that were acquired but not used.
+  public void release(int n){
+    if (n <= 0) return;
+    Rate r = rate;
+    if (r.perSec() == 0) spent.set(false);
+    else if (r.intervalNanos() > 0) tat.addAndGet(-n * r.intervalNanos());
+  }
+
+  // How long until one permit is available; 0 when one is available now.
+  public long nanosUntilPermit(){
+    Rate r = rate;
+    if (r.perSec() == UNLIMITED) return 0;
+    if (r.perSec() == 0) return spent.get() ? RECHECK_NANOS : 0;
+    long now = System.nanoTime();
+    return Math.max(0, Math.max(tat.get() - now, 0) + r.intervalNanos() - r.burstNanos());
   }
 }
@@ -1,16 +1,97 @@
 package com.queuectl.core;
 
+import com.queuectl.model.CronSchedule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps cron schedules in a heap ordered by next fire time and sleeps until the earliest is due,
+ * then materializes every due instance in one transaction. The table is re-read only when its
+ * fingerprint changes (checked every RESYNC_MILLIS) or on wake().
+ */
 public final class SchedulerService implements Runnable {
+  private static final Logger LOG = LoggerFactory.getLogger(SchedulerService.class);
+  private static final long RESYNC_MILLIS = 10_000;
+  private record Entry(CronSchedule schedule, CronExpression expr, long nextFire) {}
+
   private final JobService jobs; private final Clock clock;
+  private final PriorityQueue<Entry> heap = new PriorityQueue<>(Comparator.comparingLong(Entry::nextFire));
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private boolean dirty = true;
+  private String fingerprint = null;
+
   public SchedulerService(JobService js, Clock clock){ this.jobs=js; this.clock=clock; }
+
+  // Forces a reload on the next loop, e.g. after adding a schedule in-process.
+  public void wake(){
+    lock.lock();
+    try { dirty = true; changed.signal(); } finally { lock.unlock(); }
+  }
+
   public void run() {
+    long nextSync = 0;
     while (true) {
       try {
-        jobs.materializeCron(clock.now());
-        Thread.sleep(1000);
+        long now = clock.millis();
+        if (takeDirty() || now >= nextSync) { sync(now); nextSync = now + RESYNC_MILLIS; }
+        fireDue(now);
+        long until = nextSync;
+        if (!heap.isEmpty()) until = Math.min(until, heap.peek().nextFire());
+        park(until - clock.millis());
+      } catch (InterruptedException e) {
+        return;
       } catch (Exception e) {
         try{ Thread.sleep(500);}catch(Exception ignored){}
       }
     }
   }
+
+  private void fireDue(long now){
+    List<JobService.CronFire> fires = new ArrayList<>();
+    List<Entry> fired = new ArrayList<>();
+    while (!heap.isEmpty() && heap.peek().nextFire() <= now) {
+      Entry e = heap.poll();
+      // after downtime, fire once for the missed slot and resume from now rather than replaying every minute
+      long next = e.expr().next(Math.max(now, e.nextFire()));
+      fires.add(new JobService.CronFire(e.schedule(), e.nextFire(), next));
+      fired.add(new Entry(e.schedule(), e.expr(), next));
+    }
+    if (fires.isEmpty()) return;
+    try { jobs.materializeCron(fires); }
+    catch (RuntimeException e) { fires.forEach(f -> heap.add(new Entry(f.schedule(), CronExpression.parse(f.schedule().cron()), f.fireAt()))); throw e; }
+    heap.addAll(fired);
+  }
+
+  private void sync(long now){
+    String fp = jobs.schedulesFingerprint();
+    if (fp.equals(fingerprint)) return;
+    List<CronSchedule> all = jobs.loadSchedules();
+    heap.clear();
+    for (CronSchedule s: all) {
+      try {
+        CronExpression expr = CronExpression.parse(s.cron());
+        heap.add(new Entry(s, expr, s.nextFireAt() > 0 ? s.nextFireAt() : expr.next(now)));
+      } catch (IllegalArgumentException bad) {
+        LOG.warn("Skipping cron schedule {}: {}", s.id(), bad.getMessage());
+      }
+    }
+    fingerprint = fp;
+  }
+
+  private boolean takeDirty(){
+    lock.lock();
+    try { boolean d = dirty; dirty = false; return d; } finally { lock.unlock(); }
+  }
+
+  private void park(long millis) throws InterruptedException {
+    if (millis <= 0) return;
+    lock.lock();
+    try { if (!dirty) changed.await(millis, TimeUnit.MILLISECONDS); } finally { lock.unlock(); }
+  }
 }
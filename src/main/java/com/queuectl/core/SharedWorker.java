@@ -0,0 +1,43 @@
+package com.queuectl.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// One worker of a shared pool: takes the next job the FairScheduler picks from any served queue, one job at a time.
+public final class SharedWorker implements Worker {
+  private final String workerId = "w-" + UUID.randomUUID();
+  private final FairScheduler scheduler;
+  private final JobRunner runner;
+  private final WorkNotifier notifier;
+  private final Metrics metrics;
+  private final Map<String, ProcessPool> pools; // queue -> persistent executors; absent: fork per job
+  private final Map<String, LatencyHistogram> execTimes = new HashMap<>();
+  private volatile boolean stop = false;
+
+  public SharedWorker(FairScheduler scheduler, JobService js, QueueService queues, CommandExecutor exec, Map<String, ProcessPool> pools){
+    this.scheduler = scheduler; this.pools = pools;
+    this.runner = new JobRunner(js, queues, exec);
+    this.notifier = js.notifier(); this.metrics = js.metrics();
+  }
+
+  @Override public void requestStop(){ stop = true; notifier.signalAll(); }
+
+  public void run(){
+    while (!stop) {
+      try {
+        long seen = notifier.generation();
+        FairScheduler.Lease lease = scheduler.next(workerId);
+        if (lease == null) { notifier.awaitAny(seen, scheduler.idleMillis()); continue; }
+        String q = lease.queue();
+        long start = System.nanoTime();
+        try { runner.run(lease.job(), lease.probe(), pools.get(q), execTimes.computeIfAbsent(q, k -> metrics.histogram(Metrics.Stage.EXECUTION, k))); }
+        finally { scheduler.done(lease, System.nanoTime() - start); }
+      } catch (InterruptedException e) {
+        if (stop) break;
+      } catch (Exception e) {
+        try { Thread.sleep(300); } catch (InterruptedException ignored) {}
+      }
+    }
+  }
+}
@@ -0,0 +1,566 @@
+package com.queuectl.core;
+
+import com.queuectl.db.GroupCommitWriter;
+import com.queuectl.model.CronSchedule;
+import com.queuectl.model.Job;
+import com.queuectl.model.JobState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/** JobStore over the SQLite tables; also owns cron schedules, which always live in the durable store. */
+public final class SqliteJobStore implements JobStore {
+  private static final Logger LOG = LoggerFactory.getLogger(SqliteJobStore.class);
+  private final DataSource ds;
+  private final Clock clock;
+  private final GroupCommitWriter writer; // null: every write commits on its own
+  private final WorkNotifier notifier;
+  private final LatencyHistogram txTime;
+  public SqliteJobStore(DataSource ds, Clock clock, GroupCommitWriter writer, WorkNotifier notifier, LatencyHistogram txTime){
+    this.ds=ds; this.clock=clock; this.writer=writer; this.notifier=notifier; this.txTime=txTime;
+  }
+
+  private static final String INSERT_JOB =
+    "INSERT INTO jobs(id,queue,command,args,state,attempts,max_retries,priority,timeout_sec,idempotency_key,run_after,cron,created_at,updated_at) VALUES(?, ?, ?, ?, 'pending', 0, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  @Override public void insert(NewJob job){
+    try(Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(INSERT_JOB)){
+      bindJob(ps, job, clock.millis());
+      c.setAutoCommit(false);
+      try {
+        ps.executeUpdate();
+        linkDeps(c, job.id(), job.dependsOn());
+        c.commit();
+      } catch (SQLException | RuntimeException e){
+        c.rollback(); throw e;
+      } finally {
+        c.setAutoCommit(true);
+      }
+      notifier.signal(job.queue());
+    } catch(SQLException e){
+      if(e.getMessage()!=null && e.getMessage().contains("PRIMARY KEY")) throw new IllegalStateException("Job id exists: "+job.id());
+      if(e.getMessage()!=null && e.getMessage().contains("ux_jobs_idem")) throw new IllegalStateException("Idempotent duplicate for key: "+job.idempotencyKey());
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Inserts in transactions of chunkSize rows through one reused statement. Invalid entries and
+  // id/idempotency conflicts go to onReject and are skipped without aborting the batch.
+  public long enqueueBatch(Iterator<JobService.BatchEntry> entries, int chunkSize, Consumer<JobService.Rejection> onReject){
+    long inserted = 0;
+    Set<String> touched = new HashSet<>();
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(INSERT_JOB+" ON CONFLICT DO NOTHING")){
+      c.setAutoCommit(false);
+      try {
+        int inChunk = 0;
+        long now = clock.millis();
+        while (entries.hasNext()){
+          JobService.BatchEntry e = entries.next();
+          Object id = e.json().get("id");
+          if (e.json().get("cron") != null){
+            try { if (!insertSchedule(c, e.json(), now)) onReject.accept(new JobService.Rejection(e.line(), String.valueOf(id), "Schedule id exists: "+id)); }
+            catch (RuntimeException bad){ onReject.accept(new JobService.Rejection(e.line(), id==null? null: String.valueOf(id), String.valueOf(bad.getMessage()))); }
+            continue;
+          }
+          NewJob job;
+          try { job = NewJob.of(e.json(), now); bindJob(ps, job, now); }
+          catch (RuntimeException bad){ onReject.accept(new JobService.Rejection(e.line(), id==null? null: String.valueOf(id), String.valueOf(bad.getMessage()))); continue; }
+          Savepoint sp = job.dependsOn().isEmpty()? null: c.setSavepoint();
+          if (ps.executeUpdate()==0){
+            Object idk = e.json().get("idempotency_key");
+            onReject.accept(new JobService.Rejection(e.line(), String.valueOf(id), idk==null? "Job id exists: "+id: "Job id exists or idempotent duplicate for key: "+idk));
+            continue;
+          }
+          if (sp != null){
+            try { linkDeps(c, job.id(), job.dependsOn()); c.releaseSavepoint(sp); }
+            catch (IllegalArgumentException bad){ c.rollback(sp); onReject.accept(new JobService.Rejection(e.line(), String.valueOf(id), bad.getMessage())); continue; }
+          }
+          inserted++; touched.add(job.queue());
+          if (++inChunk >= chunkSize){
+            c.commit(); inChunk = 0; now = clock.millis();
+            touched.forEach(notifier::signal); touched.clear();
+          }
+        }
+        c.commit();
+      } catch (SQLException | RuntimeException e){
+        c.rollback(); throw e; // earlier chunks stay committed; the open one must not go in half-written
+      } finally {
+        c.setAutoCommit(true);
+      }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+    touched.forEach(notifier::signal);
+    return inserted;
+  }
+
+  // Records parent links for a freshly inserted job and sets its unmet_deps. Parents must already exist.
+  private void linkDeps(Connection c, String jobId, List<String> deps) throws SQLException {
+    if (deps.isEmpty()) return;
+    int unmet = 0;
+    try (PreparedStatement parent = c.prepareStatement("SELECT state FROM jobs WHERE id=?");
+         PreparedStatement link = c.prepareStatement("INSERT INTO job_deps(job_id, depends_on) VALUES(?,?)")){
+      for (String d: deps){
+        parent.setString(1, d);
+        try (ResultSet rs = parent.executeQuery()){
+          if (!rs.next()) throw new IllegalArgumentException("Unknown dependency: "+d);
+          if (!"completed".equals(rs.getString(1))) unmet++;
+        }
+        link.setString(1, jobId); link.setString(2, d); link.executeUpdate();
+      }
+    }
+    if (unmet == 0) return;
+    try (PreparedStatement ps = c.prepareStatement("UPDATE jobs SET unmet_deps=? WHERE id=?")){
+      ps.setInt(1, unmet); ps.setString(2, jobId); ps.executeUpdate();
+    }
+  }
+
+  private static void bindJob(PreparedStatement ps, NewJob j, long now) throws SQLException {
+    ps.setString(1,j.id()); ps.setString(2,j.queue()); ps.setString(3,j.command()); ps.setString(4,j.args());
+    ps.setInt(5,j.maxRetries()); ps.setInt(6,j.priority()); ps.setInt(7,j.timeoutSec()); ps.setString(8,j.idempotencyKey());
+    ps.setLong(9,j.runAfter()); ps.setString(10,null);
+    ps.setLong(11,now); ps.setLong(12,now);
+  }
+
+  // Leases up to n ready jobs in one UPDATE ... RETURNING statement
+  @Override public List<Job> claim(String queue, String workerId, int n, int leaseSeconds, long agingMillis){
+    long now = clock.millis();
+    long leaseUntil = now + leaseSeconds*1000L;
+    String sql = """
+      UPDATE jobs SET state='processing', worker_id=?, lease_until=?, updated_at=?, claimed_at=?
+      WHERE id IN (
+        SELECT j.id FROM jobs j
+        WHERE j.state='pending' AND j.queue=? AND j.unmet_deps=0 AND j.run_after <= ?
+        ORDER BY CASE WHEN ? > 0 THEN j.created_at - j.priority * ? END, j.priority DESC, j.created_at ASC
+        LIMIT ?
+      ) AND state='pending'
+      RETURNING *
+    """;
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+      ps.setString(1, workerId); ps.setLong(2, leaseUntil); ps.setLong(3, now); ps.setLong(4, now);
+      ps.setString(5, queue); ps.setLong(6, now); ps.setLong(7, agingMillis); ps.setLong(8, agingMillis); ps.setInt(9, Math.max(1, n));
+      List<Job> out = new ArrayList<>();
+      try (ResultSet rs = ps.executeQuery()){ while(rs.next()) out.add(map(rs)); }
+      // RETURNING order is unspecified, restore claim order
+      out.sort(JobStore.claimOrder(agingMillis));
+      return out;
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  @Override public CompletableFuture<Void> adopt(Job j){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("""
+      INSERT INTO jobs(id,queue,command,args,state,attempts,max_retries,priority,timeout_sec,idempotency_key,run_after,created_at,updated_at,last_exit_code,last_error)
+      VALUES(?,?,?,?,'pending',?,?,?,?,?,?,?,?,?,?) ON CONFLICT DO NOTHING""")){
+      ps.setString(1, j.id()); ps.setString(2, j.queue()); ps.setString(3, j.command()); ps.setString(4, j.args());
+      ps.setInt(5, j.attempts()); ps.setInt(6, j.maxRetries()); ps.setInt(7, j.priority()); ps.setInt(8, j.timeoutSec());
+      ps.setString(9, j.idempotencyKey()); ps.setLong(10, j.runAfterMillis()); ps.setLong(11, j.createdAtMillis()); ps.setLong(12, j.updatedAtMillis());
+      ps.setObject(13, j.lastExitCode()); ps.setString(14, j.lastError());
+      if (ps.executeUpdate() > 0) notifier.signal(j.queue());
+    } catch (SQLException e){ throw new RuntimeException(e); }
+    return CompletableFuture.completedFuture(null);
+  }
+
+  // Pending jobs of the queue per the queue_stats counter; cheap enough to poll before a hand-off.
+  public long pending(String queue){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT n FROM queue_stats WHERE queue=? AND state='pending'")){
+      ps.setString(1, queue);
+      try (ResultSet rs = ps.executeQuery()){ return rs.next() ? rs.getLong(1) : 0; }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  // Moves up to n pending jobs of the queue that no other job depends on into to, so a queue served by another
+  // store can take over jobs enqueued here by processes that only see the database. The removal commits only
+  // once to holds them durably: a crash in between leaves a job in both stores, never in neither.
+  public List<Job> handOff(String queue, int n, JobStore to){
+    try (Connection c = ds.getConnection()){
+      c.setAutoCommit(false);
+      List<Job> out = new ArrayList<>();
+      try (PreparedStatement ps = c.prepareStatement("""
+        DELETE FROM jobs WHERE id IN (
+          SELECT j.id FROM jobs j
+          WHERE j.state='pending' AND j.queue=? AND j.unmet_deps=0
+            AND NOT EXISTS (SELECT 1 FROM job_deps d WHERE d.depends_on=j.id)
+          ORDER BY j.priority DESC, j.created_at ASC
+          LIMIT ?
+        ) RETURNING *""");
+           PreparedStatement links = c.prepareStatement("DELETE FROM job_deps WHERE job_id=?")){
+        ps.setString(1, queue); ps.setInt(2, Math.max(1, n));
+        try (ResultSet rs = ps.executeQuery()){ while(rs.next()) out.add(map(rs)); }
+        for (Job j: out){ links.setString(1, j.id()); links.addBatch(); }
+        if (!out.isEmpty()) links.executeBatch();
+        List<CompletableFuture<Void>> adopted = new ArrayList<>(out.size());
+        for (Job j: out) adopted.add(to.adopt(j));
+        adopted.forEach(CompletableFuture::join);
+        c.commit();
+      } catch (SQLException | RuntimeException e){
+        c.rollback(); throw e;
+      } finally {
+        c.setAutoCommit(true);
+      }
+      return out;
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  // Hands unstarted leases back to pending, only while workerId still holds them
+  @Override public void releaseLeases(Collection<String> ids, String workerId){
+    if (ids.isEmpty()) return;
+    long now = clock.millis();
+    try (Connection c = ds.getConnection()){
+      c.setAutoCommit(false);
+      try (PreparedStatement ps=c.prepareStatement("""
+        UPDATE jobs SET state='pending', worker_id=NULL, lease_until=NULL, updated_at=?
+        WHERE id=? AND worker_id=? AND state='processing'""")){
+        for (String id: ids){ ps.setLong(1, now); ps.setString(2, id); ps.setString(3, workerId); ps.addBatch(); }
+        ps.executeBatch();
+      }
+      c.commit(); c.setAutoCommit(true);
+    } catch (SQLException e){ throw new RuntimeException(e); }
+    notifier.signalAll();
+  }
+
+  @Override public int expireLeases(){
+    long now = clock.millis();
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("""
+           UPDATE jobs
+             SET state='pending', worker_id=NULL, lease_until=NULL, updated_at=?
+           WHERE state='processing' AND lease_until IS NOT NULL AND lease_until < ?
+         """)) {
+      ps.setLong(1, now); ps.setLong(2, now);
+      int n = ps.executeUpdate();
+      if (n > 0) notifier.signalAll();
+      return n;
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  @Override public CompletableFuture<Void> markCompleted(Job job, int exitCode, String stdoutTail, CommandExecutor.OutputStats stats){
+    String id = job.id();
+    long now = clock.millis();
+    Set<String> unblocked = new HashSet<>();
+    return write(c -> {
+      unblocked.clear(); // the group-commit writer may replay this op
+      int done;
+      try (PreparedStatement ps=c.prepareStatement("UPDATE jobs SET state='completed', updated_at=?, last_exit_code=? WHERE id=? AND state='processing'")){
+        ps.setLong(1, now); ps.setInt(2, exitCode); ps.setString(3, id); done = ps.executeUpdate();
+      }
+      if (done > 0) storeStats(c, id, stats);
+      if (done > 0){
+        try (PreparedStatement ps=c.prepareStatement("""
+          UPDATE jobs SET unmet_deps=unmet_deps-1
+          WHERE id IN (SELECT job_id FROM job_deps WHERE depends_on=?) AND unmet_deps > 0
+          RETURNING queue, unmet_deps""")){
+          ps.setString(1, id);
+          try (ResultSet rs = ps.executeQuery()){ while(rs.next()) if (rs.getInt(2)==0) unblocked.add(rs.getString(1)); }
+        }
+      }
+      if (stdoutTail!=null && !stdoutTail.isEmpty()) logLineConn(c, id, "stdout", stdoutTail);
+    }).thenRun(() -> unblocked.forEach(notifier::signal));
+  }
+
+  @Override public CompletableFuture<Void> retry(Job job, int next, long nextRun, int exitCode, String error, CommandExecutor.OutputStats stats){
+    long now = clock.millis();
+    return write(c -> {
+      try (PreparedStatement ps=c.prepareStatement("""
+        UPDATE jobs SET state='pending', attempts=?, updated_at=?, run_after=?, last_exit_code=?, last_error=NULL, worker_id=NULL, lease_until=NULL
+        WHERE id=?""")){
+        ps.setInt(1,next); ps.setLong(2, now); ps.setLong(3, nextRun);
+        ps.setInt(4, exitCode); ps.setString(5, job.id()); ps.executeUpdate();
+      }
+      storeStats(c, job.id(), stats);
+      if (stats == null) logLineConn(c, job.id(), "stderr", truncate(error, 1024)); // with stats the run streamed its stderr already
+    });
+  }
+
+  @Override public CompletableFuture<Void> moveToDlq(Job job, int exitCode, String error, CommandExecutor.OutputStats stats){
+    String id = job.id();
+    Instant now = clock.now();
+    return write(c -> {
+      // write first: a read-then-write upgrade fails fast with SQLITE_BUSY once another writer has committed
+      try (PreparedStatement ins=c.prepareStatement("""
+        INSERT INTO dlq(id, queue, command, attempts, last_exit_code, last_error, moved_at)
+        SELECT id, queue, command, attempts+1, ?, ?, ? FROM jobs WHERE id=?""")){
+        ins.setInt(1, exitCode); ins.setString(2, truncate(error, 2048)); ins.setString(3, now.toString());
+        ins.setString(4, id);
+        if (ins.executeUpdate()==0) throw new NoSuchElementException("No job: "+id);
+      }
+      try (PreparedStatement upd=c.prepareStatement("UPDATE jobs SET state='dead', updated_at=? WHERE id=?")){
+        upd.setLong(1, now.toEpochMilli()); upd.setString(2, id); upd.executeUpdate();
+      }
+      storeStats(c, id, stats);
+    });
+  }
+
+  // Full output sizes of the last attempt; the captured text itself is bounded by the queue's capture limits.
+  private static void storeStats(Connection c, String id, CommandExecutor.OutputStats stats) throws SQLException {
+    if (stats == null) return;
+    try (PreparedStatement ps=c.prepareStatement("UPDATE jobs SET stdout_bytes=?, stdout_lines=?, stderr_bytes=?, stderr_lines=? WHERE id=?")){
+      ps.setLong(1, stats.stdoutBytes()); ps.setLong(2, stats.stdoutLines());
+      ps.setLong(3, stats.stderrBytes()); ps.setLong(4, stats.stderrLines()); ps.setString(5, id); ps.executeUpdate();
+    }
+  }
+
+  @Override public CompletableFuture<Void> appendLogs(String jobId, List<CommandExecutor.Chunk> chunks){
+    String at = clock.now().toString();
+    return write(c -> {
+      try (PreparedStatement ps=c.prepareStatement("INSERT INTO job_logs(job_id,created_at,kind,content) VALUES(?,?,?,?)")){
+        for (CommandExecutor.Chunk ch: chunks){ ps.setString(1, jobId); ps.setString(2, at); ps.setString(3, ch.kind()); ps.setString(4, ch.text()); ps.addBatch(); }
+        ps.executeBatch();
+      }
+    });
+  }
+
+  @Override public void retryFromDlq(String id){
+    long now = clock.millis();
+    String queue;
+    try (Connection c = ds.getConnection()){
+      c.setAutoCommit(false);
+      try (PreparedStatement d=c.prepareStatement("DELETE FROM dlq WHERE id=? RETURNING queue, command")){
+        d.setString(1, id);
+        try (ResultSet rs=d.executeQuery()){
+          if(!rs.next()) throw new IllegalArgumentException("DLQ not found: "+id);
+          queue=rs.getString(1);
+        }
+      }
+      // the dead row keeps its id, so reset it rather than inserting a duplicate
+      try (PreparedStatement u=c.prepareStatement("""
+        UPDATE jobs SET state='pending', attempts=0, run_after=?, updated_at=?, worker_id=NULL, lease_until=NULL, last_error=NULL
+        WHERE id=?""")){
+        u.setLong(1, now); u.setLong(2, now); u.setString(3, id);
+        if (u.executeUpdate()==0) throw new IllegalStateException("Job row missing for DLQ entry: "+id);
+      }
+      c.commit(); c.setAutoCommit(true);
+    } catch (SQLException e){ throw new RuntimeException(e); }
+    notifier.signal(queue);
+  }
+
+  // A job JSON carrying "cron" defines a schedule in cron_schedules instead of a job row.
+  public void schedule(Map<String,Object> json){
+    try (Connection c = ds.getConnection()){
+      if (!insertSchedule(c, json, clock.millis())) throw new IllegalStateException("Schedule id exists: "+json.get("id"));
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  private boolean insertSchedule(Connection c, Map<String,Object> json, long now) throws SQLException {
+    String id=(String)json.get("id");
+    String command=(String)json.get("command");
+    if(id==null || command==null) throw new IllegalArgumentException("id and command required");
+    String cron=(String)json.get("cron");
+    long next = CronExpression.parse(cron).next(now);
+    try (PreparedStatement ps = c.prepareStatement("""
+      INSERT INTO cron_schedules(id, queue, command, cron, max_retries, priority, timeout_sec, next_fire_at, created_at, updated_at)
+      VALUES(?,?,?,?,?,?,?,?,?,?) ON CONFLICT(id) DO NOTHING""")){
+      ps.setString(1, id); ps.setString(2, (String)json.getOrDefault("queue","default")); ps.setString(3, command); ps.setString(4, cron);
+      ps.setInt(5, NewJob.toInt(json.getOrDefault("max_retries",3))); ps.setInt(6, NewJob.toInt(json.getOrDefault("priority",0)));
+      ps.setInt(7, NewJob.toInt(json.getOrDefault("timeout_sec",60))); ps.setLong(8, next); ps.setLong(9, now); ps.setLong(10, now);
+      return ps.executeUpdate() > 0;
+    }
+  }
+
+  public List<CronSchedule> loadSchedules(){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(
+      "SELECT id, queue, command, cron, max_retries, priority, timeout_sec, next_fire_at FROM cron_schedules")){
+      try (ResultSet rs = ps.executeQuery()){
+        List<CronSchedule> out = new ArrayList<>();
+        while (rs.next()) out.add(new CronSchedule(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+          rs.getInt(5), rs.getInt(6), rs.getInt(7), rs.getLong(8)));
+        return out;
+      }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  // Changes whenever a schedule is added, removed or edited; lets the scheduler skip reloading an unchanged table.
+  public String schedulesFingerprint(){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT COUNT(*), COALESCE(MAX(updated_at),0) FROM cron_schedules");
+         ResultSet rs = ps.executeQuery()){
+      rs.next(); return rs.getLong(1)+":"+rs.getLong(2);
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  // Inserts one job per due fire and advances next_fire_at, all in one transaction. Instances are
+  // idempotent per (schedule, fire minute), so several daemons or a replay never double-fire.
+  public void materializeCron(List<JobService.CronFire> fires){ cron(fires, true, true); }
+
+  // For a queue on another shard: its file takes the instances first, then the main file advances the
+  // schedules. Instance ids are deterministic, so a crash in between re-fires into a no-op insert.
+  public void insertCronInstances(List<JobService.CronFire> fires){ cron(fires, true, false); }
+  public void advanceSchedules(List<JobService.CronFire> fires){ cron(fires, false, true); }
+
+  private void cron(List<JobService.CronFire> fires, boolean insert, boolean advance){
+    if (fires.isEmpty()) return;
+    long now = clock.millis();
+    Set<String> touched = new HashSet<>();
+    try (Connection c = ds.getConnection();
+         PreparedStatement ins = c.prepareStatement(INSERT_JOB+" ON CONFLICT DO NOTHING");
+         PreparedStatement adv = c.prepareStatement("UPDATE cron_schedules SET next_fire_at=? WHERE id=?")){
+      c.setAutoCommit(false);
+      try {
+        for (JobService.CronFire f: fires){
+          CronSchedule s = f.schedule();
+          long minute = f.fireAt()/60_000;
+          Map<String,Object> m = new HashMap<>();
+          m.put("id", s.id()+"-i-"+minute); m.put("queue", s.queue()); m.put("command", s.command());
+          m.put("idempotency_key", Idempotency.cronKey(s.id(), minute));
+          m.put("max_retries", s.maxRetries()); m.put("priority", s.priority()); m.put("timeout_sec", s.timeoutSec());
+          if (insert) {
+            bindJob(ins, NewJob.of(m, now), now);
+            if (ins.executeUpdate() > 0) touched.add(s.queue());
+          }
+          if (advance) { adv.setLong(1, f.nextFireAt()); adv.setString(2, s.id()); adv.executeUpdate(); }
+        }
+        c.commit();
+      } catch (SQLException | RuntimeException e){
+        c.rollback(); throw e;
+      } finally {
+        c.setAutoCommit(true);
+      }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+    touched.forEach(notifier::signal);
+  }
+
+  // Jobs claimable right now (counted up to cap) and when the longest-waiting of them became due (0: none).
+  @Override public JobService.Backlog backlog(String queue, int cap){
+    long now = clock.millis();
+    try (Connection c = ds.getConnection();
+         PreparedStatement ps = c.prepareStatement("""
+           SELECT (SELECT COUNT(*) FROM (SELECT 1 FROM jobs WHERE state='pending' AND queue=? AND unmet_deps=0 AND run_after<=? LIMIT ?)),
+                  (SELECT MIN(run_after) FROM jobs WHERE state='pending' AND queue=? AND unmet_deps=0 AND run_after<=?)""")){
+      ps.setString(1, queue); ps.setLong(2, now); ps.setInt(3, cap); ps.setString(4, queue); ps.setLong(5, now);
+      try (ResultSet rs = ps.executeQuery()){ rs.next(); return new JobService.Backlog(rs.getLong(1), rs.getLong(2)); }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  // A range seek on idx_jobs_claim, however many jobs are due or scheduled.
+  @Override public OptionalLong nextRunAfter(String queue, long afterMillis){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT MIN(run_after) FROM jobs WHERE state='pending' AND queue=? AND unmet_deps=0 AND run_after>?")){
+      ps.setString(1, queue); ps.setLong(2, afterMillis);
+      try (ResultSet rs = ps.executeQuery()){ rs.next(); long v = rs.getLong(1); return rs.wasNull()? OptionalLong.empty(): OptionalLong.of(v); }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  private static final String[] STATES = {"pending","processing","completed","failed","dead"};
+
+  // Reads the trigger-maintained queue_stats counters, so cost does not grow with the jobs table.
+  @Override public Map<String,Map<String,Long>> countsByQueue(){
+    Map<String,Map<String,Long>> out = new TreeMap<>();
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT queue, state, n FROM queue_stats")){
+      try (ResultSet rs = ps.executeQuery()){
+        while(rs.next()){
+          out.computeIfAbsent(rs.getString(1), q -> { Map<String,Long> m = new LinkedHashMap<>(); for (String s: STATES) m.put(s, 0L); return m; })
+             .put(rs.getString(2), rs.getLong(3));
+        }
+      }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+    return out;
+  }
+
+  // Recomputes queue_stats from jobs in one transaction; returns how many counters had drifted.
+  public int rebuildStats(){
+    try (Connection c = ds.getConnection()){
+      int drifted;
+      try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery("""
+        SELECT COUNT(*) FROM (
+          SELECT queue, state FROM (
+            SELECT queue, state, n FROM queue_stats
+            UNION ALL
+            SELECT queue, state, -COUNT(*) FROM jobs GROUP BY queue, state
+          ) GROUP BY queue, state HAVING SUM(n) != 0
+        )""")){ rs.next(); drifted = rs.getInt(1); }
+      c.setAutoCommit(false);
+      try (Statement st = c.createStatement()){
+        st.executeUpdate("DELETE FROM queue_stats");
+        st.executeUpdate("INSERT INTO queue_stats(queue, state, n) SELECT queue, state, COUNT(*) FROM jobs GROUP BY queue, state");
+      }
+      c.commit(); c.setAutoCommit(true);
+      return drifted;
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  @Override public List<Job> list(String state, int limit){
+    String sql = "SELECT * FROM jobs WHERE state=? ORDER BY created_at DESC LIMIT ?";
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(sql)){
+      ps.setString(1, state); ps.setInt(2, limit);
+      try (ResultSet rs = ps.executeQuery()){
+        List<Job> out = new ArrayList<>(); while(rs.next()) out.add(map(rs)); return out;
+      }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  @Override public List<Map<String,Object>> listDlq(){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT id, queue, command, attempts, last_exit_code FROM dlq ORDER BY moved_at DESC")){
+      try(ResultSet rs = ps.executeQuery()){
+        List<Map<String,Object>> out = new ArrayList<>();
+        while(rs.next()){
+          Map<String,Object> m = new LinkedHashMap<>();
+          m.put("id", rs.getString(1)); m.put("queue", rs.getString(2)); m.put("command", rs.getString(3));
+          m.put("attempts", rs.getInt(4)); m.put("last_exit_code", rs.getInt(5)); out.add(m);
+        }
+        return out;
+      }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  // Log rows after the given id, oldest first; followers pass the last id they saw.
+  @Override public List<JobService.LogEntry> logsAfter(String jobId, long afterId, int limit){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT id, created_at, kind, content FROM job_logs WHERE job_id=? AND id>? ORDER BY id LIMIT ?")){
+      ps.setString(1, jobId); ps.setLong(2, afterId); ps.setInt(3, limit);
+      try (ResultSet rs = ps.executeQuery()){
+        List<JobService.LogEntry> out = new ArrayList<>();
+        while(rs.next()) out.add(new JobService.LogEntry(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+        return out;
+      }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  @Override public Optional<JobState> state(String id){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT state FROM jobs WHERE id=?")){
+      ps.setString(1, id);
+      try (ResultSet rs = ps.executeQuery()){ return rs.next() ? Optional.of(JobState.valueOf(rs.getString(1))) : Optional.empty(); }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  @Override public boolean contains(String id){ return state(id).isPresent(); }
+
+  @Override public List<String> logs(String jobId, int limit){
+    try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT created_at || ' ' || kind || ' ' || rtrim(content, char(10)) FROM job_logs WHERE job_id=? ORDER BY id DESC LIMIT ?")){
+      ps.setString(1, jobId); ps.setInt(2, limit);
+      try (ResultSet rs = ps.executeQuery()){ List<String> out=new ArrayList<>(); while(rs.next()) out.add(rs.getString(1)); return out; }
+    } catch (SQLException e){ throw new RuntimeException(e); }
+  }
+
+  // ----- helpers -----
+  // Runs op in its own transaction, or hands it to the group-commit writer when one is configured.
+  private CompletableFuture<Void> write(GroupCommitWriter.Op op){
+    if (writer!=null) {
+      // callers such as workers do not wait on write-behind futures, so a failed commit is logged here as well
+      CompletableFuture<Void> f = writer.submit(op);
+      f.whenComplete((v, e) -> { if (e != null) LOG.error("write-behind commit failed", e); });
+      return f;
+    }
+    try (Connection c = ds.getConnection()){
+      long start = System.nanoTime();
+      c.setAutoCommit(false);
+      op.apply(c);
+      c.commit(); c.setAutoCommit(true);
+      txTime.record(System.nanoTime() - start);
+    } catch (SQLException e){ throw new RuntimeException(e); }
+    return CompletableFuture.completedFuture(null);
+  }
+  private static Job map(ResultSet r) throws SQLException {
+    return new Job(
+      r.getString("id"), r.getString("queue"), r.getString("command"), r.getString("args"),
+      JobState.valueOf(r.getString("state")), r.getInt("attempts"), r.getInt("max_retries"),
+      r.getInt("priority"), r.getInt("timeout_sec"), r.getString("idempotency_key"),
+      r.getLong("created_at"), r.getLong("updated_at"), r.getLong("run_after"), r.getLong("lease_until"),
+      r.getString("worker_id"), (Integer)r.getObject("last_exit_code"), r.getString("last_error")
+    );
+  }
+  private void logLineConn(Connection c, String jobId, String kind, String content) throws SQLException {
+    try (PreparedStatement ps=c.prepareStatement("INSERT INTO job_logs(job_id,created_at,kind,content) VALUES(?,?,?,?)")){
+      ps.setString(1, jobId); ps.setString(2, clock.now().toString()); ps.setString(3, kind); ps.setString(4, content); ps.executeUpdate();
+    }
+  }
+  private static String truncate(String s, int n){ if(s==null) return null; return s.length()>n? s.substring(0,n):s; }
+}
@@ -0,0 +1,75 @@
+package com.queuectl.core;
+
+import java.util.*;
+
+/**
+ * Hierarchical timing wheel of due times per key: four levels of 64 slots, each level's slot spanning
+ * a whole turn of the level below, so the horizon is 64^4 ticks. An entry sits in the coarsest level
+ * its distance fits and drops to a finer one each time its slot comes round. A slot keeps only the
+ * earliest due time per key, so the wheel holds at most keys x slots entries however many are added.
+ * Not thread-safe.
+ */
+final class TimingWheel {
+  private static final int BITS = 6, SLOTS = 1 << BITS, MASK = SLOTS - 1, LEVELS = 4;
+  private static final long HORIZON = 1L << (BITS * LEVELS);
+
+  private final long tickMillis;
+  @SuppressWarnings("unchecked")
+  private final Map<String, Long>[][] slots = (Map<String, Long>[][]) new Map<?, ?>[LEVELS][SLOTS];
+  private long current; // last tick handled
+  private int size;
+
+  TimingWheel(long tickMillis, long nowMillis){
+    this.tickMillis = tickMillis;
+    this.current = nowMillis / tickMillis;
+  }
+
+  // Returns false, adding nothing, when dueMillis is already past.
+  boolean add(String key, long dueMillis){
+    long t = Math.ceilDiv(dueMillis, tickMillis);
+    if (t <= current) return false;
+    long delta = Math.min(t - current, HORIZON - 1); // beyond the horizon: parked in the last level, re-placed when it comes round
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) level++;
+    int idx = (int) (((current + delta) >> (BITS * level)) & MASK);
+    Map<String, Long> s = slots[level][idx];
+    if (s == null) slots[level][idx] = s = new HashMap<>();
+    Long prev = s.putIfAbsent(key, dueMillis);
+    if (prev == null) size++;
+    else if (dueMillis < prev) s.put(key, dueMillis);
+    return true;
+  }
+
+  // Moves the wheel up to nowMillis and returns the keys whose due time passed on the way.
+  Set<String> advance(long nowMillis){
+    Set<String> fired = new LinkedHashSet<>();
+    long target = nowMillis / tickMillis;
+    while (current < target) {
+      current++;
+      // cascade coarsest first, so an entry can fall through several levels in one tick
+      int top = 0;
+      while (top < LEVELS - 1 && (current & ((1L << (BITS * (top + 1))) - 1)) == 0) top++;
+      for (int level = top; level >= 1; level--) {
+        Map<String, Long> s = take(level, (int) ((current >> (BITS * level)) & MASK));
+        if (s != null) s.forEach((k, due) -> { if (!add(k, due)) fired.add(k); });
+      }
+      Map<String, Long> s = take(0, (int) (current & MASK));
+      if (s != null) fired.addAll(s.keySet());
+    }
+    return fired;
+  }
+
+  // When advance() next has work: the next occupied tick of the finest level, else the next turn of
+  // it, when coarser slots cascade; Long.MAX_VALUE when empty.
+  long nextWakeMillis(){
+    if (size == 0) return Long.MAX_VALUE;
+    for (long t = current + 1; t < current + SLOTS; t++) if (slots[0][(int) (t & MASK)] != null) return t * tickMillis;
+    return ((current >> BITS) + 1 << BITS) * tickMillis;
+  }
+
+  private Map<String, Long> take(int level, int idx){
+    Map<String, Long> s = slots[level][idx];
+    if (s != null) { slots[level][idx] = null; size -= s.size(); }
+    return s;
+  }
+}
@@ -0,0 +1,62 @@
+package com.queuectl.core;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-queue wakeup signal for idle workers. Workers read the generation before claiming and
+ * park only while it is unchanged, so a signal raised between the claim and the park is not lost.
+ * Every queue signal also bumps one shared signal for workers that serve several queues.
+ */
+public final class WorkNotifier {
+  private static final class Signal {
+    final ReentrantLock lock = new ReentrantLock(); // not synchronized: virtual workers must not pin while parked
+    final Condition changed = lock.newCondition();
+    long gen;
+  }
+
+  private final Map<String, Signal> signals = new ConcurrentHashMap<>();
+  private final Signal any = new Signal();
+
+  private Signal of(String queue){ return signals.computeIfAbsent(queue, q -> new Signal()); }
+
+  public Set<String> queues(){ return signals.keySet(); }
+
+  public long generation(String queue){ return generation(of(queue)); }
+  public long generation(){ return generation(any); }
+
+  private static long generation(Signal s){
+    s.lock.lock();
+    try { return s.gen; } finally { s.lock.unlock(); }
+  }
+
+  public void signal(String queue){ bump(of(queue)); bump(any); }
+
+  private static void bump(Signal s){
+    s.lock.lock();
+    try { s.gen++; s.changed.signalAll(); } finally { s.lock.unlock(); }
+  }
+
+  public void signalAll(){ signals.keySet().forEach(this::signal); bump(any); }
+
+  // Returns true when signalled, false when maxMillis elapsed first.
+  public boolean await(String queue, long seenGen, long maxMillis) throws InterruptedException { return await(of(queue), seenGen, maxMillis); }
+  // Like await, on the shared signal: returns once any queue was signalled after seenGen was read.
+  public boolean awaitAny(long seenGen, long maxMillis) throws InterruptedException { return await(any, seenGen, maxMillis); }
+
+  private static boolean await(Signal s, long seenGen, long maxMillis) throws InterruptedException {
+    long left = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    s.lock.lock();
+    try {
+      while (s.gen == seenGen) {
+        if (left <= 0) return false;
+        left = s.changed.awaitNanos(left);
+      }
+      return true;
+    } finally { s.lock.unlock(); }
+  }
+}
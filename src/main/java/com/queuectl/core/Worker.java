@@ -0,0 +1,6 @@
+package com.queuectl.core;
+
+// A worker loop that can be asked to exit after its current job.
+public interface Worker extends Runnable {
+  void requestStop();
+}
@@ -2,43 +2,121 @@ package com.queuectl.core;
 
 import com.queuectl.model.Job;
 
-import java.util.Random;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
-public final class WorkerService implements Runnable {
+public final class WorkerService implements Worker {
+  private static final int LEASE_SECONDS = 30;
+  private static final long MAX_IDLE_MILLIS = 5000; // backstop for changes nobody signals
   private final String queue;
   private final String workerId = "w-" + UUID.randomUUID();
   private final JobService jobService;
-  private final Backoff backoff;
-  private final CommandExecutor exec = new CommandExecutor();
-  private final RateLimiter limiter;
+  private final JobRunner runner;
+  private final WorkNotifier notifier;
+  private final QueueService queues;
+  private final int prefetch;
+  private final ProcessPool pool; // null: fork per job
+  private final LatencyHistogram execTime, stallTime, slotWait;
+  // each buffered job has already paid its rate-limit permit, and a probe its circuit breaker permit
+  private final ArrayDeque<Claimed> buffer = new ArrayDeque<>();
+  private record Claimed(Job job, long probe) {}
   private volatile boolean stop = false;
 
-  public WorkerService(String queue, JobService js, Backoff backoff, RateLimiter limiter) {
-    this.queue=queue; this.jobService = js; this.backoff = backoff; this.limiter=limiter;
+  public WorkerService(String queue, JobService js, QueueService queues) {
+    this(queue, js, queues, 1, new CommandExecutor(), null);
   }
 
-  public void requestStop() { stop = true; }
+  public WorkerService(String queue, JobService js, QueueService queues, int prefetch, CommandExecutor exec, ProcessPool pool) {
+    this.queue=queue; this.jobService = js; this.queues=queues; this.prefetch=Math.max(1, prefetch); this.pool=pool;
+    this.runner = new JobRunner(js, queues, exec);
+    this.notifier = js.notifier();
+    Metrics m = js.metrics();
+    this.execTime = m.histogram(Metrics.Stage.EXECUTION, queue);
+    this.stallTime = m.histogram(Metrics.Stage.RATE_LIMIT_STALL, queue);
+    this.slotWait = m.histogram(Metrics.Stage.SLOT_WAIT, queue);
+  }
+
+  @Override public void requestStop() { stop = true; notifier.signal(queue); }
 
   public void run() {
-    Random jitter = new Random();
-    while (!stop) {
-      try {
-        if (!limiter.tryAcquire()) { Thread.sleep(20); continue; }
-        var claimed = jobService.claimNext(queue, workerId, 30);
-        if (claimed.isEmpty()) { Thread.sleep(200 + jitter.nextInt(600)); continue; }
-        Job j = claimed.get();
-        var res = exec.run(j.command(), j.timeoutSec());
-        if (res.timedOut()) {
-          jobService.onFail(j, 124, "[timeout] " + res.stderr(), backoff);
-        } else if (res.exitCode() == 0) {
-          jobService.markCompleted(j.id(), 0, res.stdout());
-        } else {
-          jobService.onFail(j, res.exitCode(), res.stderr(), backoff);
+    try {
+      while (!stop) {
+        try {
+          long seen = notifier.generation(queue);
+          if (queues.paused(queue)) { releaseBuffered(); notifier.await(queue, seen, MAX_IDLE_MILLIS); continue; }
+          long blocked = queues.breaker(queue).blockedMillis();
+          if (blocked > 0) { releaseBuffered(); notifier.await(queue, seen, blocked); continue; } // circuit open: sit out the open period
+          // the slot comes before the claim, so a worker held back by the concurrency limit sits on no leases
+          ConcurrencyLimit slots = queues.slots(queue);
+          long waitStart = System.nanoTime();
+          boolean slot = slots.acquire(MAX_IDLE_MILLIS);
+          if (!slot) { releaseBuffered(); continue; } // timed out: not a wait for a slot that was granted
+          slotWait.record(System.nanoTime() - waitStart);
+          int got = 1;
+          try {
+            if (buffer.isEmpty()) got = refill();
+            Claimed c = got > 0 ? take() : null;
+            if (c != null) runner.run(c.job(), c.probe(), pool, execTime);
+          } finally { slots.release(); }
+          if (got < 0) stall();
+          else if (got == 0) notifier.await(queue, seen, MAX_IDLE_MILLIS); // DueWakeups signals when a delayed job falls due
+        } catch (InterruptedException e) {
+          if (stop) break;
+        } catch (Exception e) {
+          try { Thread.sleep(300); } catch (InterruptedException ignored) {}
         }
-      } catch (Exception e) {
-        try { Thread.sleep(300); } catch (InterruptedException ignored) {}
       }
+    } finally {
+      releaseBuffered();
     }
   }
+
+  private void stall() throws InterruptedException {
+    long start = System.nanoTime();
+    try { TimeUnit.NANOSECONDS.sleep(queues.limiter(queue).nanosUntilPermit()); }
+    finally { stallTime.record(System.nanoTime() - start); }
+  }
+
+  // One batch claim sized by the rate-limit permits available; unused permits go back. -1 when rate-limited.
+  private int refill() {
+    RateLimiter limiter = queues.limiter(queue);
+    int permits = limiter.acquireUpTo(prefetch);
+    if (permits == 0) return -1;
+    CircuitBreaker breaker = queues.breaker(queue);
+    CircuitBreaker.Permit allowed = breaker.acquire(permits); // half-open: only the probes left
+    int n = allowed.granted();
+    List<Job> got;
+    try { got = n == 0 ? List.of() : jobService.claimBatch(queue, workerId, n, LEASE_SECONDS, queues.agingMillis(queue)); }
+    catch (RuntimeException e) { breaker.release(allowed.probe(), n); limiter.release(permits); throw e; }
+    breaker.release(allowed.probe(), n - got.size());
+    limiter.release(permits - got.size());
+    for (Job j: got) buffer.add(new Claimed(j, allowed.probe()));
+    return got.size();
+  }
+
+  // Next buffered job whose lease is still valid; leases that expired while buffered are handed back.
+  private Claimed take() {
+    List<String> expired = new ArrayList<>();
+    Claimed c;
+    long now = jobService.clock().millis();
+    while ((c = buffer.poll()) != null && c.job().leaseUntilMillis() != 0 && c.job().leaseUntilMillis() < now) {
+      expired.add(c.job().id());
+      queues.breaker(queue).release(c.probe(), 1);
+    }
+    jobService.releaseLeases(queue, expired, workerId);
+    return c;
+  }
+
+  private void releaseBuffered() {
+    if (buffer.isEmpty()) return;
+    List<String> ids = new ArrayList<>();
+    CircuitBreaker breaker = queues.breaker(queue);
+    for (Claimed c: buffer) { ids.add(c.job().id()); breaker.release(c.probe(), 1); }
+    buffer.clear();
+    queues.limiter(queue).release(ids.size());
+    try { jobService.releaseLeases(queue, ids, workerId); } catch (Exception ignored) {}
+  }
 }
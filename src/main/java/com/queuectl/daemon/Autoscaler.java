@@ -0,0 +1,117 @@
+package com.queuectl.daemon;
+
+import com.queuectl.core.JobService;
+import com.queuectl.core.QueueService;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Sizes each queue's worker group from its ready backlog, the age of its oldest ready job and the
+ * average run time, between the configured minimum and queues.concurrency (maxWorkers for a queue
+ * without a concurrency limit). Scale-ups apply on the next sample; a lower target must hold for the
+ * cooldown before workers are stopped. A queue that is paused, out of rate permits or behind an open
+ * circuit breaker is not grown: its backlog is not waiting on workers.
+ */
+public final class Autoscaler implements Runnable {
+  public record Decision(long at, String queue, int from, int to, String reason) {}
+
+  private static final int BACKLOG_CAP = 10_000;      // enough to size any group; keeps the count query bounded
+  private static final long DRAIN_TARGET_MILLIS = 10_000; // size the group to clear the ready backlog in about this long
+  private static final long MAX_WAIT_MILLIS = 5_000;  // a ready job older than this adds a worker even if the math says no
+  private static final int HISTORY = 50;
+
+  private final JobService jobs;
+  private final QueueService queues;
+  private final Map<String, WorkerGroup> groups;
+  private final Map<String, Integer> mins;
+  private final int maxWorkers;
+  private final long sampleMillis, cooldownMillis;
+  private final Map<String, Long> lowerSince = new ConcurrentHashMap<>();
+  private final Map<String, Map<String,Object>> view = new ConcurrentHashMap<>();
+  private final Deque<Decision> decisions = new ConcurrentLinkedDeque<>();
+
+  Autoscaler(JobService jobs, QueueService queues, Map<String, WorkerGroup> groups, Map<String, Integer> mins, int maxWorkers, long sampleMillis, long cooldownMillis){
+    this.jobs = jobs; this.queues = queues; this.groups = groups; this.mins = mins; this.maxWorkers = maxWorkers;
+    this.sampleMillis = Math.max(100, sampleMillis); this.cooldownMillis = Math.max(0, cooldownMillis);
+  }
+
+  public void run(){
+    while (true) {
+      for (String q: groups.keySet()) {
+        try { sample(q); } catch (Exception ignored) {}
+      }
+      try { Thread.sleep(sampleMillis); } catch (InterruptedException e) { return; }
+    }
+  }
+
+  private void sample(String q){
+    WorkerGroup g = groups.get(q);
+    int min = mins.get(q), max = max(q);
+    long now = System.currentTimeMillis();
+    var b = jobs.backlog(q, BACKLOG_CAP);
+    long age = b.ready() > 0 ? now - b.oldestReadyMillis() : 0;
+    long run = queues.avgRunMillis(q);
+    int cur = g.size();
+
+    int target; String reason;
+    long per = run < 0 ? 1000 : Math.max(1, run); // no samples yet: assume a second per job
+    if (b.ready() == 0) { target = min; reason = "no ready jobs"; }
+    else {
+      target = (int)Math.min(Integer.MAX_VALUE, (b.ready() * per + DRAIN_TARGET_MILLIS - 1) / DRAIN_TARGET_MILLIS);
+      reason = b.ready() + " ready x " + per + "ms";
+      if (age > MAX_WAIT_MILLIS && target <= cur) { target = cur + 1; reason = "oldest ready job waited " + age + "ms"; }
+      // a rate-limited queue keeps busy only the workers its rate can feed
+      int rate = queues.limiter(q).ratePerSec();
+      long fed = rate < 0 ? Long.MAX_VALUE : Math.max(1, (rate * per + 999) / 1000);
+      if (target > fed) { target = (int)fed; reason = "rate " + rate + "/s x " + per + "ms"; }
+      String held = held(q);
+      if (held != null && target > cur) { target = cur; reason = held; }
+    }
+    target = Math.max(min, Math.min(max, target));
+
+    if (target > cur) { lowerSince.remove(q); apply(q, g, cur, target, "up: " + reason); }
+    else if (target < cur) {
+      long since = lowerSince.computeIfAbsent(q, k -> now);
+      if (now - since >= cooldownMillis) { lowerSince.remove(q); apply(q, g, cur, target, "down: " + reason); }
+    } else lowerSince.remove(q);
+
+    Map<String,Object> m = new LinkedHashMap<>();
+    m.put("workers", g.size()); m.put("min", min); m.put("max", max); m.put("target", target);
+    m.put("ready", b.ready()); m.put("oldest_ready_age_ms", age); m.put("avg_run_ms", run);
+    view.put(q, m);
+  }
+
+  private int max(String q){
+    int conc = queues.concurrency(q);
+    return Math.max(mins.get(q), conc > 0 ? conc : maxWorkers);
+  }
+
+  // Why more workers would not run more of the queue's jobs right now, or null.
+  private String held(String q){
+    if (queues.paused(q)) return "paused";
+    if (queues.breaker(q).blockedMillis() > 0) return "circuit breaker open";
+    if (queues.limiter(q).nanosUntilPermit() > 0) return "rate limited";
+    return null;
+  }
+
+  private void apply(String q, WorkerGroup g, int from, int to, String reason){
+    g.resize(to);
+    decisions.addFirst(new Decision(System.currentTimeMillis(), q, from, to, reason));
+    while (decisions.size() > HISTORY) decisions.pollLast();
+  }
+
+  // Current per-queue view and the most recent decisions, newest first, for the dashboard.
+  public Map<String,Object> snapshot(){
+    Map<String,Object> out = new LinkedHashMap<>();
+    out.put("queues", new LinkedHashMap<>(view));
+    List<Decision> recent = new ArrayList<>(decisions);
+    out.put("decisions", recent);
+    return out;
+  }
+}
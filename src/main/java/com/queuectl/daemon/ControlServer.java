@@ -0,0 +1,181 @@
+package com.queuectl.daemon;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.queuectl.core.Backoff;
+import com.queuectl.core.CircuitBreaker;
+import com.queuectl.core.ConfigService;
+import com.queuectl.core.JobService;
+import com.queuectl.core.JournalJobStore;
+import com.queuectl.core.QueueService;
+import com.queuectl.db.DataSourceFactory;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Control socket of a running daemon: a Unix domain socket next to the database carrying one JSON
+ * request per line, {"op":...} plus arguments, each answered by {"ok":true,"result":...} or
+ * {"ok":false,"error":...}. CLI commands use it while a daemon is up, so they skip opening pools and
+ * running migrations, and they also see the jobs of memory and journal queues.
+ */
+public final class ControlServer implements Runnable, AutoCloseable {
+  private static final ObjectMapper JSON = new ObjectMapper();
+
+  private final Path path;
+  private final ServerSocketChannel server;
+  private final Thread.Builder sessions;
+  private final JobService jobs;
+  private final QueueService queues;
+  private final ConfigService config;
+  private final Path journalDir;
+  private final JournalJobStore journal; // null unless this daemon serves journal queues
+
+  private ControlServer(Path path, ServerSocketChannel server, Thread.Builder sessions, JobService jobs, QueueService queues, ConfigService config,
+                        Path journalDir, JournalJobStore journal){
+    this.path=path; this.server=server; this.sessions=sessions; this.jobs=jobs; this.queues=queues; this.config=config;
+    this.journalDir=journalDir; this.journal=journal;
+  }
+
+  // Binds the socket, replacing one left behind by a dead daemon; null when a live daemon already owns it.
+  // A file there that is not this user's with mode 0600 is left alone and fails the start.
+  public static ControlServer open(String dbPath, Thread.Builder sessions, JobService jobs, QueueService queues, ConfigService config, JournalJobStore journal){
+    Path path = DataSourceFactory.controlSocket(dbPath);
+    UnixDomainSocketAddress addr = UnixDomainSocketAddress.of(path);
+    try {
+      if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+        if (!DataSourceFactory.privateSocket(path)) throw new IllegalStateException("Control socket " + path + " is not yours with mode 0600; remove it to start a daemon");
+        try { SocketChannel.open(addr).close(); return null; }
+        catch (IOException stale) { Files.deleteIfExists(path); }
+      }
+      return new ControlServer(path, bindPrivate(path), sessions, jobs, queues, config, DataSourceFactory.journalDir(dbPath), journal);
+    } catch (IOException e) { throw new UncheckedIOException(e); }
+  }
+
+  // Binds at path, private before anyone can connect: the socket is bound inside a fresh 0700 directory
+  // next to path, narrowed to 0600 and then hard-linked into place, which fails like bind if path exists.
+  private static ServerSocketChannel bindPrivate(Path path) throws IOException {
+    ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    Path dir;
+    try { dir = Files.createTempDirectory(path.getParent(), ".q", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"))); }
+    catch (UnsupportedOperationException noPosix) { server.bind(UnixDomainSocketAddress.of(path)); return server; }
+    Path bound = dir.resolve("s");
+    try {
+      server.bind(UnixDomainSocketAddress.of(bound));
+      Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+      Files.createLink(path, bound);
+    } catch (IOException e) {
+      server.close(); throw e;
+    } finally {
+      Files.deleteIfExists(bound); Files.delete(dir);
+    }
+    return server;
+  }
+
+  public Path path(){ return path; }
+
+  // Accept loop; a connection may carry any number of requests, answered in order.
+  @Override public void run(){
+    while (server.isOpen()) {
+      SocketChannel ch;
+      try { ch = server.accept(); } catch (IOException e) { return; }
+      sessions.start(() -> session(ch));
+    }
+  }
+
+  private void session(SocketChannel ch){
+    try (ch;
+         BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(ch), StandardCharsets.UTF_8));
+         Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(ch), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.isBlank()) continue;
+        ObjectNode reply = JSON.createObjectNode();
+        try {
+          JsonNode req = JSON.readTree(line);
+          Object result = handle(req.path("op").asText(), req);
+          reply.put("ok", true).set("result", JSON.valueToTree(result));
+        } catch (Exception e) {
+          reply.removeAll().put("ok", false).put("error", String.valueOf(e.getMessage()));
+        }
+        out.write(JSON.writeValueAsString(reply)); out.write('\n'); out.flush();
+      }
+    } catch (IOException ignored) {} // client went away
+  }
+
+  private Object handle(String op, JsonNode req){
+    return switch (op) {
+      case "ping" -> "pong";
+      case "enqueue" -> { jobs.enqueue(job(req.get("job"))); yield null; }
+      case "enqueue_batch" -> {
+        List<JobService.BatchEntry> entries = new ArrayList<>();
+        for (JsonNode e: req.path("entries")) entries.add(new JobService.BatchEntry(e.path("line").asLong(), job(e.get("job"))));
+        List<JobService.Rejection> rejected = new ArrayList<>();
+        long inserted = jobs.enqueueBatch(entries.iterator(), req.path("chunk").asInt(5000), rejected::add);
+        yield Map.of("inserted", inserted, "rejected", rejected);
+      }
+      case "status" -> jobs.countsByState();
+      case "stats" -> jobs.countsByQueue();
+      case "rebuild_stats" -> jobs.rebuildStats();
+      case "list" -> jobs.list(text(req, "state"), req.path("limit").asInt(20));
+      case "state" -> jobs.state(text(req, "id")).orElse(null);
+      case "logs" -> jobs.logs(text(req, "id"), req.path("limit").asInt(50));
+      case "logs_after" -> jobs.logsAfter(text(req, "id"), req.path("after").asLong(), req.path("limit").asInt(500));
+      case "dlq_list" -> jobs.listDlq();
+      case "dlq_retry" -> { jobs.retryFromDlq(text(req, "id")); yield null; }
+      case "queue_define" -> {
+        String name = text(req, "name");
+        Integer shard = req.hasNonNull("shard") ? req.get("shard").asInt() : null;
+        // shard placement is read once at start, so this daemon cannot follow a pin that moves the queue
+        if (shard != null && !jobs.staysOnShard(name, shard))
+          throw new IllegalStateException("Queue " + name + " is on shard " + jobs.shard(name) + " while the daemon runs; stop it to pin the queue to shard " + shard);
+        queues.checkStoreChange(name, text(req, "store"), q -> journal != null ? journal.unfinished(q) : JournalJobStore.unfinished(journalDir, q));
+        queues.define(name, req.path("rate").asInt(), req.path("concurrency").asInt(), req.path("capture_head").asInt(), req.path("capture_tail").asInt(),
+          text(req, "executor"), text(req, "store"), shard,
+          req.path("weight").asInt(1), req.path("aging").asInt(300), retry(req), breaker(req));
+        yield null;
+      }
+      case "queue_pause" -> { queues.setPaused(text(req, "name"), req.path("paused").asBoolean()); yield null; }
+      case "config_get" -> config.get(text(req, "key")).orElse(null);
+      case "config_set" -> { config.set(text(req, "key"), text(req, "value")); yield null; }
+      default -> throw new IllegalArgumentException("unknown op: " + op);
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String,Object> job(JsonNode n){
+    if (n == null || !n.isObject()) throw new IllegalArgumentException("job must be a JSON object");
+    return JSON.convertValue(n, Map.class);
+  }
+
+  // queue_define's retry_policy (absent: the config default), retry_base and retry_cap
+  private static Backoff retry(JsonNode req){
+    if (!req.hasNonNull("retry_policy")) return null;
+    return new Backoff(Backoff.Policy.valueOf(text(req, "retry_policy")), req.path("retry_base").asInt(2), req.path("retry_cap").asInt(3600));
+  }
+
+  private static CircuitBreaker.Settings breaker(JsonNode req){
+    return new CircuitBreaker.Settings(req.path("breaker_failure_rate").asDouble(0), req.path("breaker_window").asInt(60), req.path("breaker_min_calls").asInt(20),
+      req.path("breaker_open").asInt(30), req.path("breaker_probes").asInt(3));
+  }
+
+  private static String text(JsonNode req, String field){ return req.hasNonNull(field) ? req.get(field).asText() : null; }
+
+  // Stops accepting and removes the socket file; sessions in progress finish their current request.
+  @Override public void close(){
+    try { server.close(); Files.deleteIfExists(path); } catch (IOException e) { throw new UncheckedIOException(e); }
+  }
+}
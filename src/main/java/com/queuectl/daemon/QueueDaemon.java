@@ -2,61 +2,181 @@ package com.queuectl.daemon;
 
 import com.queuectl.core.*;
 import com.queuectl.db.DataSourceFactory;
+import com.queuectl.db.SegmentJournal;
+import com.queuectl.db.Shards;
 import com.queuectl.http.DashboardServer;
-import org.flywaydb.core.Flyway;
+import spark.Spark;
 
 import javax.sql.DataSource;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 
 public final class QueueDaemon {
+  private static final String SHARED = "*"; // key of the shared pool's group; not a queue
+  // With autoscale, the per-queue worker counts are minimums and queues.concurrency is the maximum, or
+  // maxWorkers for a queue without a concurrency limit.
+  // sharedWorkers > 0 replaces the per-queue workers with one pool of that many serving every queue.
+  public record Options(int prefetch, boolean writeBehind, boolean virtualThreads, boolean autoscale, int scaleCooldownSec, int maxWorkers, int sharedWorkers) {
+    public static Options defaults(){ return new Options(1, false, false, false, 30, 16, 0); }
+  }
+
+  // A running daemon; stop() drains workers and releases everything launch() started.
+  public static final class Handle {
+    private final JobService jobs;
+    private final Map<String, WorkerGroup> groups;
+    private final List<Thread> background;
+    private final List<ProcessPool> pools;
+    private final JournalJobStore journal;
+    private final Shards shards;
+    private final ControlServer control;
+    private final boolean dashboard;
+    private boolean stopped;
+
+    private Handle(JobService jobs, Map<String, WorkerGroup> groups, List<Thread> background, List<ProcessPool> pools,
+                   JournalJobStore journal, Shards shards, ControlServer control, boolean dashboard){
+      this.jobs=jobs; this.groups=groups; this.background=background; this.pools=pools; this.journal=journal; this.shards=shards; this.control=control; this.dashboard=dashboard;
+    }
+
+    public JobService jobs(){ return jobs; }
+
+    public synchronized void stop(){
+      if (stopped) return;
+      stopped = true;
+      if (control!=null) control.close(); // CLI commands fall back to the database from here on
+      background.forEach(Thread::interrupt);
+      List<Thread> threads = new ArrayList<>();
+      groups.values().forEach(g -> threads.addAll(g.stopAll()));
+      for (Thread t: threads) { try { t.join(5000);} catch (InterruptedException ignored){} }
+      pools.forEach(ProcessPool::close);
+      if (journal!=null) journal.close();
+      if (dashboard) Spark.stop();
+      shards.close(); // group-commit writers first, then the pools
+    }
+  }
+
   public static void start(String dbPath, Map<String,Integer> queueWorkers, boolean dashboard) {
-    DataSource ds = DataSourceFactory.sqlite(dbPath);
-    Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
+    start(dbPath, queueWorkers, dashboard, Options.defaults());
+  }
+
+  public static void start(String dbPath, Map<String,Integer> queueWorkers, boolean dashboard, Options opts) {
+    Handle h = launch(dbPath, queueWorkers, dashboard, opts);
+    CountDownLatch stopped = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      h.stop();
+      System.out.println("Workers stopped gracefully.");
+      stopped.countDown();
+    }));
+    // workers come and go under the autoscaler, so the main thread waits for shutdown rather than joining them
+    try { stopped.await(); } catch (InterruptedException ignored) {}
+  }
+
+  public static Handle launch(String dbPath, Map<String,Integer> queueWorkers, boolean dashboard, Options opts) {
+    Shards shards = Shards.open(dbPath);
+    DataSource ds = shards.main();
+
+    Metrics metrics = new Metrics();
+    for (DataSource d: shards.all()) DataSourceFactory.instrument(d, metrics);
 
     Clock clock = Instant::now;
-    JobService js = new JobService(ds, clock);
-    QueueService qs = new QueueService(ds);
+    if (opts.writeBehind()) shards.writeBehind(256, 5, metrics.histogram(Metrics.Stage.DB_TX));
+    WorkNotifier notifier = new WorkNotifier();
+    JobService js = new JobService(shards, clock, notifier, metrics);
+    QueueService qs = new QueueService(ds, notifier);
+    List<Thread> background = new ArrayList<>();
 
-    int backoffBase = 2; // can be made dynamic from config
-    Backoff backoff = new Backoff(backoffBase, 3600);
+    // Picks up queue create/pause/resume edits and the job defaults in config: rate, concurrency, pause, retry policy and breaker apply to running workers
+    background.add(threads(opts, true).name("queue-config").start(() -> { while(true){ try{ qs.refresh(); js.loadDefaults(); Thread.sleep(1000);}catch(InterruptedException e){ return; }catch(Exception ignored){} }}));
 
-    // Sweeper
-    LeaseSweeper sweeper = new LeaseSweeper(ds, clock);
-    Thread sweeperThread = new Thread(() -> { while(true){ try{ sweeper.run(); Thread.sleep(5000);}catch(Exception ignored){} }}, "lease-sweeper");
-    sweeperThread.setDaemon(true); sweeperThread.start();
+    // Wakes idle workers on commits from other processes, one watcher per SQLite file
+    Thread.Builder watchers = threads(opts, true).name("db-watcher-", 0);
+    for (DataSource d: shards.all()) background.add(watchers.start(new DbChangeWatcher(d, js.clock(), notifier, js.wakeups(), js::pendingInSqlite, 50)));
 
     // Scheduler
     SchedulerService scheduler = new SchedulerService(js, clock);
-    Thread schedThread = new Thread(scheduler, "scheduler");
-    schedThread.setDaemon(true); schedThread.start();
+    background.add(threads(opts, true).name("scheduler").start(scheduler));
+
+    // Ephemeral queues share one heap store, journal queues one segment log next to the database. The log
+    // belongs to one daemon at a time; while another holds it, journal queues stay on SQLite here and that
+    // daemon takes their jobs over from there.
+    MemoryJobStore memory = null;
+    JournalJobStore journal = null;
+    boolean journalHeld = false;
+    for (String q: queueWorkers.keySet()){
+      switch (qs.store(q)) {
+        case "memory" -> {
+          if (memory == null) memory = new MemoryJobStore(clock, notifier);
+          js.route(q, memory);
+        }
+        case "journal" -> {
+          if (journal == null && !journalHeld) {
+            try { journal = new JournalJobStore(DataSourceFactory.journalDir(dbPath), clock, notifier, metrics.histogram(Metrics.Stage.JOURNAL_SYNC)); }
+            catch (SegmentJournal.InUseException held) { journalHeld = true; System.out.println("Journal is held by another daemon; journal queues are served from SQLite here."); }
+          }
+          if (journal != null) js.route(q, journal);
+        }
+        default -> {}
+      }
+    }
+
+    // Signals queues as their delayed jobs fall due, starting from what the stores hold now
+    js.wakeups().arm(queueWorkers.keySet());
+    background.add(threads(opts, true).name("due-wakeups").start(js.wakeups()));
+
+    // Sweepers, one per store
+    Thread.Builder sweepers = threads(opts, true).name("lease-sweeper-", 0);
+    for (JobStore store: js.stores()) {
+      LeaseSweeper sweeper = new LeaseSweeper(store);
+      background.add(sweepers.start(() -> { while(true){ try{ sweeper.run(); Thread.sleep(5000);}catch(InterruptedException e){ return; }catch(Exception ignored){} }}));
+    }
+
+    // Workers per queue, or one shared pool picking queues by weight
+    CommandExecutor exec = new CommandExecutor(threads(opts, false).name("collector-", 0).factory(),
+      Executors.newThreadPerTaskExecutor(threads(opts, true).name("handler-", 0).factory()), metrics.histogram(Metrics.Stage.SPAWN));
+    Map<String, WorkerGroup> groups = new LinkedHashMap<>();
+    Map<String, ProcessPool> pools = new LinkedHashMap<>();
+    for (String q: queueWorkers.keySet()){
+      if (qs.executor(q) != null) pools.put(q, new ProcessPool(qs.executor(q), qs.concurrency(q), threads(opts, true).name("executor-"+q+"-", 0).factory()));
+    }
+    if (opts.sharedWorkers() > 0) {
+      FairScheduler fair = new FairScheduler(js, qs, new ArrayList<>(queueWorkers.keySet()));
+      WorkerGroup g = new WorkerGroup(() -> new SharedWorker(fair, js, qs, exec, pools), threads(opts, false).name("w-shared-", 0).factory());
+      g.resize(opts.sharedWorkers());
+      groups.put(SHARED, g);
+    } else {
+      for (var e: queueWorkers.entrySet()){
+        String q = e.getKey();
+        ProcessPool p = pools.get(q);
+        WorkerGroup g = new WorkerGroup(() -> new WorkerService(q, js, qs, opts.prefetch(), exec, p), threads(opts, false).name("w-"+q+"-", 0).factory());
+        g.resize(e.getValue());
+        groups.put(q, g);
+      }
+    }
+
+    Autoscaler scaler = null;
+    if (opts.autoscale() && opts.sharedWorkers() == 0) {
+      scaler = new Autoscaler(js, qs, groups, queueWorkers, opts.maxWorkers(), 1000, opts.scaleCooldownSec() * 1000L);
+      background.add(threads(opts, true).name("autoscaler").start(scaler));
+    }
 
     // Dashboard
     if (dashboard) {
       int port = 8088;
-      DashboardServer.start(port, ds);
+      DashboardServer.start(port, ds, js, scaler == null ? null : scaler::snapshot, qs::breakers, metrics);
       System.out.println("Dashboard: http://localhost:"+port);
     }
 
-    // Workers per queue
-    List<Thread> threads = new ArrayList<>();
-    List<WorkerService> workers = new ArrayList<>();
-    for (var e: queueWorkers.entrySet()){
-      String q = e.getKey();
-      int n = e.getValue();
-      for (int i=0;i<n;i++){
-        var w = new WorkerService(q, js, backoff, qs.limiter(q));
-        var t = new Thread(w, "w-"+q+"-"+i);
-        threads.add(t); workers.add(w); t.start();
-      }
-    }
+    // Control socket for CLI commands; a second daemon on the same database leaves it to the first
+    ControlServer control = ControlServer.open(dbPath, threads(opts, true).name("control-", 0), js, qs, new ConfigService(ds), journal);
+    if (control != null) background.add(threads(opts, true).name("control").start(control));
+    else System.out.println("Control socket is held by another daemon; CLI commands reach that one.");
 
-    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-      workers.forEach(WorkerService::requestStop);
-      for (Thread t: threads) { try { t.join(5000);} catch (InterruptedException ignored){} }
-      System.out.println("Workers stopped gracefully.");
-    }));
+    return new Handle(js, groups, background, new ArrayList<>(pools.values()), journal, shards, control, dashboard);
+  }
 
-    try { for (Thread t: threads) t.join(); } catch (InterruptedException ignored) {}
+  // Virtual threads are always daemon threads; the main thread waits for the shutdown hook either way.
+  private static Thread.Builder threads(Options opts, boolean daemon){
+    return opts.virtualThreads()? Thread.ofVirtual(): Thread.ofPlatform().daemon(daemon);
   }
 }
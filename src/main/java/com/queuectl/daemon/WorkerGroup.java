@@ -0,0 +1,43 @@
+package com.queuectl.daemon;
+
+import com.queuectl.core.Worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+// The running workers of one queue, or of the shared pool. Shrinking asks the newest workers to stop after their current job.
+final class WorkerGroup {
+  private record Running(Worker worker, Thread thread) {}
+
+  private final Supplier<? extends Worker> factory;
+  private final ThreadFactory threads;
+  private final List<Running> running = new ArrayList<>();
+  private final List<Thread> stopping = new ArrayList<>();
+
+  WorkerGroup(Supplier<? extends Worker> factory, ThreadFactory threads){ this.factory = factory; this.threads = threads; }
+
+  synchronized int size(){ return running.size(); }
+
+  synchronized void resize(int n){
+    while (running.size() < n) {
+      Worker w = factory.get();
+      Thread t = threads.newThread(w);
+      running.add(new Running(w, t)); t.start();
+    }
+    while (running.size() > n) {
+      Running r = running.remove(running.size() - 1);
+      r.worker().requestStop(); stopping.add(r.thread());
+    }
+    stopping.removeIf(t -> !t.isAlive());
+  }
+
+  // Stops every worker; returns the threads to join.
+  synchronized List<Thread> stopAll(){
+    List<Thread> all = new ArrayList<>(stopping);
+    resize(0);
+    all.addAll(stopping);
+    return all;
+  }
+}
@@ -1,10 +1,33 @@
 package com.queuectl.db;
 
+import com.queuectl.core.LatencyHistogram;
+import com.queuectl.core.Metrics;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
 import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
 
 public final class DataSourceFactory {
+  private static final Set<PosixFilePermission> PRIVATE_DIR = PosixFilePermissions.fromString("rwx------");
+  private static final Set<PosixFilePermission> PRIVATE_SOCKET = PosixFilePermissions.fromString("rw-------");
+
   public static DataSource sqlite(String path) {
     HikariConfig cfg = new HikariConfig();
     cfg.setJdbcUrl("jdbc:sqlite:" + path);
@@ -12,4 +35,72 @@ public final class DataSourceFactory {
     cfg.setConnectionInitSql("PRAGMA journal_mode=WAL; PRAGMA synchronous=NORMAL;");
     return new HikariDataSource(cfg);
   }
+
+  // File of shard k (k >= 1) of a sharded database: queuectl.db -> queuectl.shard-1.db
+  public static String shardPath(String dbPath, int k) {
+    return dbPath.endsWith(".db") ? dbPath.substring(0, dbPath.length() - 3) + ".shard-" + k + ".db" : dbPath + ".shard-" + k;
+  }
+
+  // Segment directory of the journal job store that sits next to the database.
+  public static Path journalDir(String dbPath) {
+    return Path.of(dbPath + ".journal");
+  }
+
+  // Control socket of a daemon serving the database; socket paths are capped near 100 bytes and the daemon
+  // first binds it under a private directory next to it, so deep directories get a name in this user's
+  // runtime directory derived from the absolute database path.
+  public static Path controlSocket(String dbPath) {
+    Path p = Path.of(dbPath + ".sock").toAbsolutePath().normalize();
+    if (p.toString().getBytes(StandardCharsets.UTF_8).length <= 76) return p;
+    return runtimeDir().resolve("queuectl-" + Integer.toHexString(p.toString().hashCode()) + ".sock");
+  }
+
+  // $XDG_RUNTIME_DIR, else a queuectl-<user> directory in the temp directory that is created 0700 and must
+  // still be this user's alone when it already exists: nobody else may plant a socket where we look for one.
+  private static Path runtimeDir() {
+    String xdg = System.getenv("XDG_RUNTIME_DIR");
+    if (xdg != null && !xdg.isBlank() && Files.isDirectory(Path.of(xdg))) return Path.of(xdg);
+    Path dir = Path.of(System.getProperty("java.io.tmpdir"), "queuectl-" + System.getProperty("user.name"));
+    try {
+      try { Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(PRIVATE_DIR)); }
+      catch (FileAlreadyExistsException exists) {}
+      catch (UnsupportedOperationException noPosix) { Files.createDirectories(dir); return dir; }
+      PosixFileAttributes a = Files.readAttributes(dir, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      if (!a.isDirectory() || !a.owner().equals(currentUser()) || !a.permissions().equals(PRIVATE_DIR))
+        throw new IllegalStateException(dir + " must be a directory of " + System.getProperty("user.name") + " with mode 0700");
+      return dir;
+    } catch (IOException e) { throw new UncheckedIOException(e); }
+  }
+
+  // Whether the control socket at path is this user's and closed to everyone else (0600). Any other file
+  // there could be someone else's listener, which must neither get CLI commands nor pass for a daemon.
+  public static boolean privateSocket(Path path) throws IOException {
+    PosixFileAttributes a;
+    try { a = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS); }
+    catch (UnsupportedOperationException noPosix) { return true; }
+    return !a.isSymbolicLink() && a.owner().equals(currentUser()) && a.permissions().equals(PRIVATE_SOCKET);
+  }
+
+  private static UserPrincipal currentUser() throws IOException {
+    return FileSystems.getDefault().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+  }
+
+  // A connection of its own to the pool's database, for a holder that keeps it for life and must not
+  // take one of the few pooled connections; other data sources just hand out one of theirs.
+  public static Connection unpooled(DataSource ds) throws SQLException {
+    if (!(ds instanceof HikariDataSource h)) return ds.getConnection();
+    Connection c = DriverManager.getConnection(h.getJdbcUrl());
+    try (Statement st = c.createStatement()) { st.execute("PRAGMA journal_mode=WAL"); }
+    return c;
+  }
+
+  // Feeds Hikari's connection-acquire timings and timeouts into metrics; a no-op for other pools.
+  public static void instrument(DataSource ds, Metrics metrics) {
+    if (!(ds instanceof HikariDataSource h)) return;
+    LatencyHistogram wait = metrics.histogram(Metrics.Stage.CONNECTION_WAIT);
+    h.setMetricsTrackerFactory((pool, stats) -> new IMetricsTracker() {
+      @Override public void recordConnectionAcquiredNanos(long nanos) { wait.record(nanos); }
+      @Override public void recordConnectionTimeout() { metrics.connectionTimeout(); }
+    });
+  }
 }
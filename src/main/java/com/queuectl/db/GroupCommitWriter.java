@@ -0,0 +1,104 @@
+package com.queuectl.db;
+
+import com.queuectl.core.LatencyHistogram;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single writer thread that applies queued write operations in shared transactions,
+ * committing when a batch fills up or the flush interval elapses.
+ */
+public final class GroupCommitWriter implements AutoCloseable {
+  @FunctionalInterface
+  public interface Op { void apply(Connection c) throws SQLException; }
+
+  private record Pending(Op op, CompletableFuture<Void> done) {}
+
+  private final DataSource ds;
+  private final int maxBatch;
+  private final long flushNanos;
+  private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final Thread thread;
+  private final LatencyHistogram commitTime; // one sample per shared transaction
+  private volatile boolean closed = false;
+
+  public GroupCommitWriter(DataSource ds, int maxBatch, long flushMillis) { this(ds, maxBatch, flushMillis, new LatencyHistogram()); }
+
+  public GroupCommitWriter(DataSource ds, int maxBatch, long flushMillis, LatencyHistogram commitTime) {
+    this.ds = ds; this.commitTime = commitTime; this.maxBatch = Math.max(1, maxBatch); this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMillis));
+    this.thread = new Thread(this::loop, "group-commit");
+    thread.setDaemon(true); thread.start();
+  }
+
+  // Completes once the op's transaction has committed, or exceptionally if the op failed on its own.
+  public CompletableFuture<Void> submit(Op op) {
+    if (closed) return CompletableFuture.failedFuture(new IllegalStateException("writer closed"));
+    Pending p = new Pending(op, new CompletableFuture<>());
+    queue.add(p);
+    return p.done();
+  }
+
+  private void loop() {
+    List<Pending> batch = new ArrayList<>(maxBatch);
+    while (!closed || !queue.isEmpty()) {
+      try {
+        Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) continue;
+        batch.add(first);
+        long deadline = System.nanoTime() + flushNanos;
+        while (batch.size() < maxBatch) {
+          long left = deadline - System.nanoTime();
+          Pending p = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+          if (p == null) break;
+          batch.add(p);
+        }
+        flush(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt(); break;
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void flush(List<Pending> batch) {
+    try (Connection c = ds.getConnection()) {
+      long start = System.nanoTime();
+      c.setAutoCommit(false);
+      try {
+        for (Pending p : batch) p.op().apply(c);
+        c.commit();
+        commitTime.record(System.nanoTime() - start);
+        batch.forEach(p -> p.done().complete(null));
+      } catch (Exception e) {
+        c.rollback();
+        // one bad op must not fail its neighbours: replay one transaction per op
+        for (Pending p : batch) {
+          try { p.op().apply(c); c.commit(); p.done().complete(null); }
+          catch (Exception ex) { c.rollback(); p.done().completeExceptionally(ex); }
+        }
+      } finally {
+        c.setAutoCommit(true);
+      }
+    } catch (Exception e) {
+      batch.forEach(p -> p.done().completeExceptionally(e));
+    }
+  }
+
+  // Stops accepting work and blocks until everything already queued has been committed.
+  @Override
+  public void close() {
+    closed = true;
+    try { thread.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    Pending p;
+    while ((p = queue.poll()) != null) p.done().completeExceptionally(new IllegalStateException("writer closed"));
+  }
+}
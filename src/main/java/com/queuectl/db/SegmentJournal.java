@@ -0,0 +1,208 @@
+package com.queuectl.db;
+
+import com.queuectl.core.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of records in fixed-size memory-mapped segment files. A record is its length, a
+ * CRC32C and the payload; a segment's records end at its zeroed remainder. A bad length or checksum
+ * in the last segment is where a crash tore the tail, and replay stops there; anywhere else it fails
+ * rather than skip the segments after it. A flusher thread forces the current segment every flush interval and completes
+ * the sync() futures of everything appended before it, so many appends share one fsync. One process at a time: the
+ * journal holds a lock on a file in the directory until close(), and opening it while another holds that lock fails.
+ */
+public final class SegmentJournal implements AutoCloseable {
+  private static final String SUFFIX = ".seg";
+  private static final String LOCK = "lock";
+  private static final int HEADER = 8;
+
+  private record Waiter(long seq, CompletableFuture<Void> done) {}
+
+  // Opening a journal that another one, in this process or another, holds open.
+  public static final class InUseException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+    InUseException(Path dir) { super("journal " + dir + " is already open elsewhere"); }
+  }
+
+  private final Path dir;
+  private final int segmentBytes;
+  private final long flushMillis;
+  private final LatencyHistogram syncTime;
+  private final TreeSet<Long> segments = new TreeSet<>();
+  private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+  private final Thread flusher;
+  private final FileChannel lockFile;
+  // guarded by this
+  private FileChannel channel;
+  private MappedByteBuffer buf;
+  private long appended;
+  private volatile long synced;
+  private volatile boolean closed;
+
+  public SegmentJournal(Path dir, int segmentBytes, long flushMillis, LatencyHistogram syncTime) {
+    this.dir = dir; this.segmentBytes = segmentBytes; this.flushMillis = Math.max(1, flushMillis); this.syncTime = syncTime;
+    try {
+      Files.createDirectories(dir);
+      this.lockFile = lock(dir.resolve(LOCK));
+      try (Stream<Path> files = Files.list(dir)) {
+        files.map(f -> f.getFileName().toString()).filter(n -> n.endsWith(SUFFIX))
+          .forEach(n -> segments.add(Long.parseLong(n.substring(0, n.length() - SUFFIX.length()))));
+      } catch (IOException | RuntimeException e) { lockFile.close(); throw e; }
+    } catch (IOException e) { throw new UncheckedIOException(e); }
+    this.flusher = new Thread(this::loop, "journal-sync");
+    flusher.setDaemon(true); flusher.start();
+  }
+
+  // The open lock file, locked for as long as it stays open.
+  private static FileChannel lock(Path path) throws IOException {
+    FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock held;
+    try { held = ch.tryLock(); }
+    catch (OverlappingFileLockException sameProcess) { held = null; }
+    catch (IOException e) { ch.close(); throw e; }
+    if (held == null) { ch.close(); throw new InUseException(path.getParent()); }
+    return ch;
+  }
+
+  // Feeds every intact record of the existing segments to each, oldest first. Call before the first append.
+  // A torn tail is zeroed, so later starts, when that segment is no longer the last, read a clean end.
+  public synchronized void replay(Consumer<ByteBuffer> each) {
+    for (long seg: segments) {
+      boolean tail = seg == segments.last();
+      try (FileChannel ch = tail ? FileChannel.open(file(seg), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                                 : FileChannel.open(file(seg), StandardOpenOption.READ)) {
+        MappedByteBuffer b = ch.map(tail ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        CRC32C crc = new CRC32C();
+        while (b.remaining() >= HEADER) {
+          int at = b.position();
+          int len = b.getInt(), sum = b.getInt();
+          if (len == 0 && sum == 0) break; // unused rest of the segment
+          boolean intact = len > 0 && len <= b.remaining();
+          ByteBuffer payload = intact ? b.slice(b.position(), len) : null;
+          if (intact) { crc.reset(); crc.update(payload.duplicate()); intact = (int) crc.getValue() == sum; }
+          if (!intact) {
+            if (!tail) throw new IllegalStateException("corrupt journal record in " + file(seg) + " at byte " + at);
+            b.put(at, new byte[b.limit() - at]);
+            b.force();
+            return;
+          }
+          each.accept(payload.asReadOnlyBuffer());
+          b.position(b.position() + len);
+        }
+      } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+  }
+
+  // Copies the record into the mapped segment; durable once a later sync() completes.
+  public synchronized void append(byte[] payload) {
+    if (closed) throw new IllegalStateException("journal closed");
+    int need = HEADER + payload.length;
+    if (need > segmentBytes) throw new IllegalArgumentException("record of " + payload.length + " bytes exceeds the segment size");
+    if (buf == null || buf.remaining() < need) roll();
+    CRC32C crc = new CRC32C();
+    crc.update(payload);
+    buf.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+    appended++;
+  }
+
+  // Completes once everything appended so far has been forced to disk.
+  public synchronized CompletableFuture<Void> sync() {
+    if (appended <= synced) return CompletableFuture.completedFuture(null);
+    Waiter w = new Waiter(appended, new CompletableFuture<>());
+    waiters.add(w);
+    return w.done();
+  }
+
+  public synchronized int segmentCount() { return segments.size(); }
+
+  // Starts a new segment holding only what snapshot writes, forces it, then deletes every older segment.
+  // Appends wait meanwhile, so records that race the snapshot land after it and replay over it.
+  public synchronized void rewrite(Consumer<Consumer<byte[]>> snapshot) {
+    roll();
+    long first = segments.last();
+    snapshot.accept(this::append);
+    force();
+    for (Long seg: segments.headSet(first).toArray(Long[]::new)) {
+      try { Files.deleteIfExists(file(seg)); } catch (IOException e) { throw new UncheckedIOException(e); }
+      segments.remove(seg);
+    }
+  }
+
+  // Caller holds the lock; the old segment is forced before it is let go.
+  private void roll() {
+    try {
+      if (buf != null) { force(); channel.close(); }
+      long seg = segments.isEmpty() ? 1 : segments.last() + 1;
+      channel = FileChannel.open(file(seg), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+      segments.add(seg);
+    } catch (IOException e) { throw new UncheckedIOException(e); }
+  }
+
+  private synchronized void force() {
+    if (buf == null || appended == synced) return;
+    long start = System.nanoTime();
+    buf.force();
+    syncTime.record(System.nanoTime() - start);
+    synced = appended;
+    release();
+  }
+
+  private void loop() {
+    while (!closed) {
+      try { Thread.sleep(flushMillis); } catch (InterruptedException e) { break; }
+      flush();
+    }
+  }
+
+  // Forces outside the lock so appends keep flowing; a roll in between has already forced the older segment.
+  private void flush() {
+    MappedByteBuffer b; long seq;
+    synchronized (this) { b = buf; seq = appended; }
+    if (b == null || seq <= synced) return;
+    long start = System.nanoTime();
+    b.force();
+    syncTime.record(System.nanoTime() - start);
+    synchronized (this) { if (seq > synced) synced = seq; }
+    release();
+  }
+
+  private void release() {
+    Waiter w;
+    while ((w = waiters.peek()) != null && w.seq() <= synced) { waiters.poll(); w.done().complete(null); }
+  }
+
+  private Path file(long seg) { return dir.resolve(String.format("%016d%s", seg, SUFFIX)); }
+
+  // Stops the flusher, forces whatever is left and lets go of the lock.
+  @Override
+  public void close() {
+    closed = true;
+    flusher.interrupt();
+    try { flusher.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    synchronized (this) {
+      force();
+      try {
+        if (channel != null) channel.close();
+        lockFile.close(); // releases the lock
+      } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package com.queuectl.db;
+
+import com.queuectl.core.LatencyHistogram;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * The SQLite files behind one --db path. The main file holds config, queues and cron schedules and the
+ * jobs of shard 0; with config shards=N above 1, shards 1..N-1 are separate files next to it, each with
+ * its own pool and migrations, so queues on different shards do not share a write lock. A queue lives
+ * on queues.shard when set, otherwise on the hash of its name. Both are read once, when opened, so a pin
+ * that would move a queue is refused by a running daemon and, once the queue has jobs, by queue create.
+ */
+public final class Shards implements AutoCloseable {
+  private final List<DataSource> sources;
+  private final Map<String,Integer> pinned;
+  private final List<GroupCommitWriter> writers = new ArrayList<>();
+
+  private Shards(List<DataSource> sources, Map<String,Integer> pinned){ this.sources=sources; this.pinned=pinned; }
+
+  // One unsharded database that is already open and migrated.
+  public static Shards of(DataSource ds){ return new Shards(List.of(ds), Map.of()); }
+
+  // Opens and migrates the main file and every shard file the config asks for.
+  public static Shards open(String dbPath){
+    DataSource main = migrated(DataSourceFactory.sqlite(dbPath));
+    int n = 1;
+    Map<String,Integer> pinned = new HashMap<>();
+    try (Connection c = main.getConnection()) {
+      try (PreparedStatement ps = c.prepareStatement("SELECT value FROM config WHERE key='shards'"); ResultSet rs = ps.executeQuery()) {
+        if (rs.next()) n = Math.max(1, Integer.parseInt(rs.getString(1).trim()));
+      }
+      try (PreparedStatement ps = c.prepareStatement("SELECT name, shard FROM queues WHERE shard IS NOT NULL"); ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) pinned.put(rs.getString(1), rs.getInt(2));
+      }
+    } catch (SQLException e) { throw new RuntimeException(e); }
+    List<DataSource> all = new ArrayList<>(n);
+    all.add(main);
+    for (int k = 1; k < n; k++) all.add(migrated(DataSourceFactory.sqlite(DataSourceFactory.shardPath(dbPath, k))));
+    return new Shards(all, pinned);
+  }
+
+  private static DataSource migrated(DataSource ds){
+    Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
+    return ds;
+  }
+
+  public int count(){ return sources.size(); }
+  public DataSource main(){ return sources.get(0); }
+  public DataSource get(int shard){ return sources.get(shard); }
+  public List<DataSource> all(){ return sources; }
+
+  public int of(String queue){
+    Integer k = pinned.get(queue);
+    return wrap(k != null ? k : queue.hashCode());
+  }
+
+  // A pinned shard past the configured count wraps around rather than failing every enqueue.
+  public int wrap(int shard){ return sources.size() == 1 ? 0 : Math.floorMod(shard, sources.size()); }
+
+  // Gives every shard its own group-commit writer.
+  public void writeBehind(int maxBatch, long flushMillis, LatencyHistogram commitTime){
+    for (DataSource ds: sources) writers.add(new GroupCommitWriter(ds, maxBatch, flushMillis, commitTime));
+  }
+
+  // null unless writeBehind() was called
+  public GroupCommitWriter writer(int shard){ return writers.isEmpty() ? null : writers.get(shard); }
+
+  @Override public void close(){
+    writers.forEach(GroupCommitWriter::close);
+    for (DataSource ds: sources) if (ds instanceof HikariDataSource h) h.close();
+  }
+}
@@ -1,12 +1,25 @@
 package com.queuectl.http;
 
+import com.queuectl.core.CircuitBreaker;
+import com.queuectl.core.Clock;
+import com.queuectl.core.JobService;
+import com.queuectl.core.Metrics;
+import com.queuectl.model.Job;
 import spark.Spark;
 import javax.sql.DataSource;
-import java.sql.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.*;
+import java.util.function.Supplier;
 
 public final class DashboardServer {
-  public static void start(int port, DataSource ds) {
+  public static void start(int port, DataSource ds) { start(port, ds, new JobService(ds, (Clock) Instant::now), null, null, new Metrics()); }
+
+  // jobs: counts, listings and logs across every shard and store. ds: the main file, for pool gauges. scaling: the autoscaler's view and recent decisions, when the daemon runs one.
+  // breakers: the state of each queue's circuit breaker that is switched on, when workers run here.
+  public static void start(int port, DataSource ds, JobService jobs, Supplier<Map<String,Object>> scaling, Supplier<Map<String, CircuitBreaker.Snapshot>> breakers, Metrics metrics) {
     Spark.port(port);
 
     // Landing page to avoid 404
@@ -18,8 +31,13 @@ public final class DashboardServer {
         <h2>QueueCTL Dashboard</h2>
         <ul>
           <li><a href="/status">/status</a></li>
+          <li><a href="/status/queues">/status/queues</a></li>
+          <li><a href="/status/scaling">/status/scaling</a></li>
+          <li><a href="/status/breakers">/status/breakers</a></li>
           <li><a href="/jobs">/jobs</a></li>
           <li><a href="/jobs?state=pending">/jobs?state=pending</a></li>
+          <li>/jobs/:id/logs/stream (Server-Sent Events)</li>
+          <li><a href="/metrics">/metrics</a> (Prometheus)</li>
           <li><a href="/health">/health</a></li>
         </ul>
       </body></html>
@@ -30,47 +48,86 @@ public final class DashboardServer {
 
     Spark.get("/status", (req, res) -> {
       res.type("application/json");
-      Map<String,Object> m = new LinkedHashMap<>();
-      try (Connection c = ds.getConnection()) {
-        m.put("pending", count(c, "pending"));
-        m.put("processing", count(c, "processing"));
-        m.put("completed", count(c, "completed"));
-        m.put("failed", count(c, "failed"));
-        m.put("dead", count(c, "dead"));
-      }
-      return new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(m);
+      return new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(jobs.countsByState());
+    });
+
+    Spark.get("/status/queues", (req, res) -> {
+      res.type("application/json");
+      return new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(jobs.countsByQueue());
     });
 
+    Spark.get("/status/scaling", (req, res) -> {
+      res.type("application/json");
+      Map<String,Object> out = scaling == null ? Map.of("enabled", false) : scaling.get();
+      return new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(out);
+    });
+
+    Spark.get("/status/breakers", (req, res) -> {
+      res.type("application/json");
+      Map<String,?> out = breakers == null ? Map.of() : breakers.get();
+      return new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(out);
+    });
+
+    Spark.get("/metrics", (req, res) -> {
+      res.type("text/plain; version=0.0.4; charset=utf-8");
+      return PrometheusExporter.render(metrics, ds, jobs);
+    });
+
+    Spark.get("/jobs/:id/logs/stream", (req, res) -> streamLogs(jobs, req, res));
+
     Spark.get("/jobs", (req, res) -> {
-      String state = req.queryParams("state");
       res.type("application/json");
-      try (Connection c = ds.getConnection();
-           PreparedStatement ps = state==null
-             ? c.prepareStatement("SELECT id, state, command, attempts, priority, run_after FROM jobs ORDER BY created_at DESC LIMIT 100")
-             : c.prepareStatement("SELECT id, state, command, attempts, priority, run_after FROM jobs WHERE state=? ORDER BY created_at DESC LIMIT 100")) {
-        if (state!=null) ps.setString(1, state);
-        try (ResultSet rs = ps.executeQuery()) {
-          List<Map<String,Object>> list = new ArrayList<>();
-          while (rs.next()) {
-            Map<String,Object> row = new LinkedHashMap<>();
-            row.put("id", rs.getString("id"));
-            row.put("state", rs.getString("state"));
-            row.put("command", rs.getString("command"));
-            row.put("attempts", rs.getInt("attempts"));
-            row.put("priority", rs.getInt("priority"));
-            row.put("run_after", rs.getString("run_after"));
-            list.add(row);
-          }
-          return new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(list);
-        }
+      List<Map<String,Object>> list = new ArrayList<>();
+      for (Job j: jobs.list(req.queryParams("state"), 100)) {
+        Map<String,Object> row = new LinkedHashMap<>();
+        row.put("id", j.id());
+        row.put("state", j.state().name());
+        row.put("command", j.command());
+        row.put("attempts", j.attempts());
+        row.put("priority", j.priority());
+        row.put("run_after", j.runAfter().toString());
+        list.add(row);
       }
+      return new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(list);
     });
   }
 
-  private static long count(Connection c, String s) throws SQLException {
-    try (PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM jobs WHERE state=?")) {
-      ps.setString(1, s);
-      try (ResultSet rs = ps.executeQuery()) { rs.next(); return rs.getLong(1); }
+  // Pushes job_logs rows as they are committed; resumes after Last-Event-ID and ends once the job is finished.
+  private static Object streamLogs(JobService jobs, spark.Request req, spark.Response res) throws Exception {
+    String id = req.params("id");
+    long last = 0;
+    String resume = req.headers("Last-Event-ID");
+    if (resume != null) { try { last = Long.parseLong(resume.trim()); } catch (NumberFormatException ignored) {} }
+    var raw = res.raw();
+    raw.setContentType("text/event-stream");
+    raw.setCharacterEncoding("UTF-8");
+    raw.setHeader("Cache-Control", "no-cache");
+    OutputStream out = raw.getOutputStream();
+    long idleSince = System.currentTimeMillis();
+    try {
+      while (true) {
+        StringBuilder sb = new StringBuilder();
+        // each poll takes its own pooled connection: a long-lived stream must not pin one of the few connections
+        String state = jobs.state(id).map(Enum::name).orElse(null);
+        if (state == null) { out.write("event: error\ndata: no such job\n\n".getBytes(StandardCharsets.UTF_8)); out.flush(); return ""; }
+        for (JobService.LogEntry e: jobs.logsAfter(id, last, 500)) {
+          last = e.id();
+          sb.append("id: ").append(last).append("\nevent: ").append(e.kind()).append('\n');
+          String content = e.content();
+          if (content.endsWith("\n")) content = content.substring(0, content.length()-1);
+          for (String line: content.split("\n", -1)) sb.append("data: ").append(line).append('\n');
+          sb.append('\n');
+        }
+        long now = System.currentTimeMillis();
+        if (sb.length() > 0) idleSince = now;
+        else if (state.equals("completed") || state.equals("dead")) {
+          out.write(("event: end\ndata: " + state + "\n\n").getBytes(StandardCharsets.UTF_8)); out.flush(); return "";
+        } else if (now - idleSince > 15000) { sb.append(": keep-alive\n\n"); idleSince = now; } // also detects a gone client
+        if (sb.length() > 0) { out.write(sb.toString().getBytes(StandardCharsets.UTF_8)); out.flush(); }
+        else Thread.sleep(250);
+      }
+    } catch (IOException clientGone) {
+      return "";
     }
   }
 }
@@ -0,0 +1,69 @@
+package com.queuectl.http;
+
+import com.queuectl.core.JobService;
+import com.queuectl.core.LatencyHistogram;
+import com.queuectl.core.Metrics;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import javax.sql.DataSource;
+import java.util.TreeMap;
+
+/**
+ * Renders /metrics in the Prometheus text format. The fine histogram buckets are folded into fixed
+ * second boundaries at scrape time; a fine bucket straddling a boundary counts towards the next one.
+ */
+final class PrometheusExporter {
+  private static final String[] BOUNDS = {"0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10", "30", "60", "300"};
+
+  static String render(Metrics metrics, DataSource ds, JobService jobs) {
+    StringBuilder sb = new StringBuilder(16 * 1024);
+    for (Metrics.Stage s: Metrics.Stage.values()) {
+      header(sb, s.metric, s.help, "histogram");
+      new TreeMap<>(metrics.histograms(s)).forEach((q, h) -> histogram(sb, s.metric, q, h));
+    }
+    if (ds instanceof HikariDataSource h && h.getHikariPoolMXBean() != null) {
+      HikariPoolMXBean pool = h.getHikariPoolMXBean();
+      gauge(sb, "queuectl_db_pool_active_connections", "Connections in use", pool.getActiveConnections());
+      gauge(sb, "queuectl_db_pool_idle_connections", "Idle connections", pool.getIdleConnections());
+      gauge(sb, "queuectl_db_pool_connections", "Open connections", pool.getTotalConnections());
+      gauge(sb, "queuectl_db_pool_max_connections", "Configured pool size", h.getMaximumPoolSize());
+      gauge(sb, "queuectl_db_pool_pending_threads", "Threads waiting for a connection", pool.getThreadsAwaitingConnection());
+    }
+    header(sb, "queuectl_db_connection_timeouts_total", "Connection requests that timed out", "counter");
+    sb.append("queuectl_db_connection_timeouts_total ").append(metrics.connectionTimeouts()).append('\n');
+    header(sb, "queuectl_jobs", "Jobs per queue and state", "gauge");
+    jobs.countsByQueue().forEach((q, states) -> states.forEach((st, v) ->
+      sb.append("queuectl_jobs{queue=\"").append(escape(q)).append("\",state=\"").append(st).append("\"} ").append(v).append('\n')));
+    return sb.toString();
+  }
+
+  private static void histogram(StringBuilder sb, String name, String queue, LatencyHistogram h) {
+    String label = queue.isEmpty() ? "" : "queue=\"" + escape(queue) + "\",";
+    long cumulative = 0;
+    int i = 0, n = LatencyHistogram.buckets();
+    for (String b: BOUNDS) {
+      long limit = (long)(Double.parseDouble(b) * 1e9);
+      for (; i < n && LatencyHistogram.upperBound(i) <= limit; i++) cumulative += h.count(i);
+      sb.append(name).append("_bucket{").append(label).append("le=\"").append(b).append("\"} ").append(cumulative).append('\n');
+    }
+    for (; i < n; i++) cumulative += h.count(i);
+    // counts are read bucket by bucket while workers record; deriving _count from them keeps +Inf == _count
+    sb.append(name).append("_bucket{").append(label).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+    String plain = queue.isEmpty() ? "" : "{queue=\"" + escape(queue) + "\"}";
+    sb.append(name).append("_sum").append(plain).append(' ').append(h.sumNanos() / 1e9).append('\n');
+    sb.append(name).append("_count").append(plain).append(' ').append(cumulative).append('\n');
+  }
+
+  private static void gauge(StringBuilder sb, String name, String help, long v) {
+    header(sb, name, help, "gauge");
+    sb.append(name).append(' ').append(v).append('\n');
+  }
+
+  private static void header(StringBuilder sb, String name, String help, String type) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static String escape(String v) { return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"); }
+}
@@ -0,0 +1,12 @@
+package com.queuectl.model;
+
+public record CronSchedule(
+  String id,
+  String queue,
+  String command,
+  String cron,
+  int maxRetries,
+  int priority,
+  int timeoutSec,
+  long nextFireAt // epoch millis, 0 until first computed
+) {}
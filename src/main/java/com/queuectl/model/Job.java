@@ -2,6 +2,7 @@ package com.queuectl.model;
 
 import java.time.Instant;
 
+// Timestamps are kept as epoch millis, as stored; the Instant accessors build objects only on demand.
 public record Job(
   String id,
   String queue,
@@ -13,11 +14,16 @@ public record Job(
   int priority,
   int timeoutSec,
   String idempotencyKey,
-  Instant createdAt,
-  Instant updatedAt,
-  Instant runAfter,
-  Instant leaseUntil,
+  long createdAtMillis,
+  long updatedAtMillis,
+  long runAfterMillis,
+  long leaseUntilMillis, // 0 when not leased
   String workerId,
   Integer lastExitCode,
   String lastError
-) {}
+) {
+  public Instant createdAt() { return Instant.ofEpochMilli(createdAtMillis); }
+  public Instant updatedAt() { return Instant.ofEpochMilli(updatedAtMillis); }
+  public Instant runAfter() { return Instant.ofEpochMilli(runAfterMillis); }
+  public Instant leaseUntil() { return leaseUntilMillis == 0 ? null : Instant.ofEpochMilli(leaseUntilMillis); }
+}
@@ -0,0 +1,3 @@
+-- Job store serving the queue: 'sqlite' (durable, the default) or 'memory' (heap only, lost on restart).
+-- Read when a daemon starts; jobs enqueued from other processes reach a memory queue through SQLite.
+ALTER TABLE queues ADD COLUMN store TEXT NOT NULL DEFAULT 'sqlite' CHECK (store IN ('sqlite','memory'));
@@ -0,0 +1,16 @@
+-- Adds 'journal' (append-only segment log next to the database, durable without SQLite) to the job stores.
+-- SQLite cannot alter a CHECK constraint, so the table is rebuilt.
+CREATE TABLE queues_v11 (
+  name TEXT PRIMARY KEY,
+  rate_limit_per_sec INTEGER NOT NULL DEFAULT 50,
+  concurrency INTEGER NOT NULL DEFAULT 2,
+  paused INTEGER NOT NULL DEFAULT 0,
+  capture_head_bytes INTEGER NOT NULL DEFAULT 0,
+  capture_tail_bytes INTEGER NOT NULL DEFAULT 4096,
+  executor TEXT,
+  store TEXT NOT NULL DEFAULT 'sqlite' CHECK (store IN ('sqlite','memory','journal'))
+);
+INSERT INTO queues_v11(name, rate_limit_per_sec, concurrency, paused, capture_head_bytes, capture_tail_bytes, executor, store)
+  SELECT name, rate_limit_per_sec, concurrency, paused, capture_head_bytes, capture_tail_bytes, executor, store FROM queues;
+DROP TABLE queues;
+ALTER TABLE queues_v11 RENAME TO queues;
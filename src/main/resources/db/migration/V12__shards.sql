@@ -0,0 +1,4 @@
+-- Sharded mode: with config shards=N > 1, the jobs of each queue live in one of N SQLite files.
+-- queues.shard pins a queue to a file; NULL hashes the queue name. Both are read when a process opens the database.
+ALTER TABLE queues ADD COLUMN shard INTEGER;
+INSERT INTO config(key, value) VALUES ('shards', '1') ON CONFLICT(key) DO NOTHING;
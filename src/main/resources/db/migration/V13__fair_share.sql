@@ -0,0 +1,4 @@
+-- Share of a daemon's shared worker pool (worker --shared N) relative to the other queues it serves.
+ALTER TABLE queues ADD COLUMN weight INTEGER NOT NULL DEFAULT 1;
+-- A ready job gains one priority level per this many seconds of waiting; 0 orders by priority alone.
+ALTER TABLE queues ADD COLUMN priority_aging_sec INTEGER NOT NULL DEFAULT 300;
@@ -0,0 +1,11 @@
+-- Spacing of a failed job's retries (Backoff.Policy: exponential, decorrelated or fixed); NULL keeps
+-- exponential on the backoff_base config row.
+ALTER TABLE queues ADD COLUMN retry_policy TEXT CHECK (retry_policy IN ('exponential', 'decorrelated', 'fixed'));
+ALTER TABLE queues ADD COLUMN retry_base_sec INTEGER NOT NULL DEFAULT 2;
+ALTER TABLE queues ADD COLUMN retry_cap_sec INTEGER NOT NULL DEFAULT 3600;
+-- Circuit breaker: stop claiming while at least this share of the jobs finished in the window failed; 0 leaves it off.
+ALTER TABLE queues ADD COLUMN breaker_failure_rate REAL NOT NULL DEFAULT 0;
+ALTER TABLE queues ADD COLUMN breaker_window_sec INTEGER NOT NULL DEFAULT 60;
+ALTER TABLE queues ADD COLUMN breaker_min_calls INTEGER NOT NULL DEFAULT 20;
+ALTER TABLE queues ADD COLUMN breaker_open_sec INTEGER NOT NULL DEFAULT 30;
+ALTER TABLE queues ADD COLUMN breaker_probes INTEGER NOT NULL DEFAULT 3;
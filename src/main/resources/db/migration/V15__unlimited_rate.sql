@@ -0,0 +1,3 @@
+-- rate_limit_per_sec = -1 now means unlimited. Negative rates used to behave like 0 (one job, then none),
+-- so existing ones become 0 and keep that meaning.
+UPDATE queues SET rate_limit_per_sec = 0 WHERE rate_limit_per_sec < 0;
@@ -0,0 +1,38 @@
+-- jobs timestamps: ISO-8601 TEXT -> INTEGER epoch millis (SQLite cannot retype a column, so rebuild the table)
+CREATE TABLE jobs_v2 (
+  id TEXT PRIMARY KEY,
+  queue TEXT NOT NULL DEFAULT 'default',
+  command TEXT NOT NULL,
+  args TEXT,
+  state TEXT NOT NULL CHECK (state IN ('pending','processing','completed','failed','dead')),
+  attempts INTEGER NOT NULL DEFAULT 0,
+  max_retries INTEGER NOT NULL DEFAULT 3,
+  priority INTEGER NOT NULL DEFAULT 0,
+  timeout_sec INTEGER NOT NULL DEFAULT 60,
+  idempotency_key TEXT,
+  run_after INTEGER NOT NULL,
+  cron TEXT,
+  created_at INTEGER NOT NULL,
+  updated_at INTEGER NOT NULL,
+  lease_until INTEGER,
+  worker_id TEXT,
+  last_exit_code INTEGER,
+  last_error TEXT
+);
+
+INSERT INTO jobs_v2(id, queue, command, args, state, attempts, max_retries, priority, timeout_sec, idempotency_key,
+                    run_after, cron, created_at, updated_at, lease_until, worker_id, last_exit_code, last_error)
+SELECT id, queue, command, args, state, attempts, max_retries, priority, timeout_sec, idempotency_key,
+       CAST(ROUND((julianday(run_after) - 2440587.5) * 86400000) AS INTEGER),
+       cron,
+       CAST(ROUND((julianday(created_at) - 2440587.5) * 86400000) AS INTEGER),
+       CAST(ROUND((julianday(updated_at) - 2440587.5) * 86400000) AS INTEGER),
+       CASE WHEN lease_until IS NULL THEN NULL ELSE CAST(ROUND((julianday(lease_until) - 2440587.5) * 86400000) AS INTEGER) END,
+       worker_id, last_exit_code, last_error
+FROM jobs;
+
+DROP TABLE jobs;
+ALTER TABLE jobs_v2 RENAME TO jobs;
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_jobs_idem ON jobs(idempotency_key, queue) WHERE idempotency_key IS NOT NULL;
+CREATE INDEX IF NOT EXISTS idx_jobs_state_q_time ON jobs(state, queue, run_after, priority DESC, created_at);
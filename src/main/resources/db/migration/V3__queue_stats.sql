@@ -0,0 +1,29 @@
+-- Per-(queue, state) job counters, kept exact by triggers so every writer (daemon, CLI, other processes) stays in step.
+CREATE TABLE IF NOT EXISTS queue_stats (
+  queue TEXT NOT NULL,
+  state TEXT NOT NULL,
+  n INTEGER NOT NULL DEFAULT 0,
+  PRIMARY KEY(queue, state)
+) WITHOUT ROWID;
+
+INSERT INTO queue_stats(queue, state, n)
+SELECT queue, state, COUNT(*) FROM jobs GROUP BY queue, state;
+
+CREATE TRIGGER IF NOT EXISTS trg_jobs_stats_ins AFTER INSERT ON jobs
+BEGIN
+  INSERT INTO queue_stats(queue, state, n) VALUES(NEW.queue, NEW.state, 1)
+  ON CONFLICT(queue, state) DO UPDATE SET n = n + 1;
+END;
+
+CREATE TRIGGER IF NOT EXISTS trg_jobs_stats_del AFTER DELETE ON jobs
+BEGIN
+  UPDATE queue_stats SET n = n - 1 WHERE queue = OLD.queue AND state = OLD.state;
+END;
+
+CREATE TRIGGER IF NOT EXISTS trg_jobs_stats_upd AFTER UPDATE OF state, queue ON jobs
+WHEN OLD.state IS NOT NEW.state OR OLD.queue IS NOT NEW.queue
+BEGIN
+  UPDATE queue_stats SET n = n - 1 WHERE queue = OLD.queue AND state = OLD.state;
+  INSERT INTO queue_stats(queue, state, n) VALUES(NEW.queue, NEW.state, 1)
+  ON CONFLICT(queue, state) DO UPDATE SET n = n + 1;
+END;
@@ -0,0 +1,13 @@
+-- Dependency readiness: each job counts its not-yet-completed parents, so claims no longer probe job_deps.
+ALTER TABLE jobs ADD COLUMN unmet_deps INTEGER NOT NULL DEFAULT 0;
+
+UPDATE jobs SET unmet_deps = (
+  SELECT COUNT(*) FROM job_deps d JOIN jobs p ON d.depends_on = p.id
+  WHERE d.job_id = jobs.id AND p.state != 'completed'
+) WHERE id IN (SELECT job_id FROM job_deps);
+
+-- completion walks parent -> children
+CREATE INDEX IF NOT EXISTS idx_job_deps_parent ON job_deps(depends_on);
+
+DROP INDEX IF EXISTS idx_jobs_state_q_time;
+CREATE INDEX IF NOT EXISTS idx_jobs_claim ON jobs(state, queue, unmet_deps, run_after, priority DESC, created_at);
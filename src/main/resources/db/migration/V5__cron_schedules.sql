@@ -0,0 +1,23 @@
+-- Cron definitions move out of jobs into their own table; next_fire_at lets the scheduler sleep until due.
+CREATE TABLE IF NOT EXISTS cron_schedules (
+  id TEXT PRIMARY KEY,
+  queue TEXT NOT NULL DEFAULT 'default',
+  command TEXT NOT NULL,
+  cron TEXT NOT NULL,
+  max_retries INTEGER NOT NULL DEFAULT 3,
+  priority INTEGER NOT NULL DEFAULT 0,
+  timeout_sec INTEGER NOT NULL DEFAULT 60,
+  next_fire_at INTEGER NOT NULL DEFAULT 0, -- 0: not computed yet, scheduler fills it from the expression
+  created_at INTEGER NOT NULL,
+  updated_at INTEGER NOT NULL
+);
+
+INSERT INTO cron_schedules(id, queue, command, cron, max_retries, priority, timeout_sec, next_fire_at, created_at, updated_at)
+SELECT id, queue, command, cron, max_retries, priority, timeout_sec, 0, created_at, updated_at
+FROM jobs WHERE cron IS NOT NULL
+ON CONFLICT(id) DO NOTHING;
+
+-- the old rows were templates, never jobs to run: once copied they go rather than turning into pending jobs
+DELETE FROM job_deps WHERE job_id IN (SELECT id FROM jobs WHERE cron IS NOT NULL);
+DELETE FROM job_logs WHERE job_id IN (SELECT id FROM jobs WHERE cron IS NOT NULL);
+DELETE FROM jobs WHERE cron IS NOT NULL;
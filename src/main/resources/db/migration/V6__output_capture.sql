@@ -0,0 +1,8 @@
+-- Per-queue output capture sizes, and the full output counters recorded with each job result.
+ALTER TABLE queues ADD COLUMN capture_head_bytes INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE queues ADD COLUMN capture_tail_bytes INTEGER NOT NULL DEFAULT 4096;
+
+ALTER TABLE jobs ADD COLUMN stdout_bytes INTEGER;
+ALTER TABLE jobs ADD COLUMN stdout_lines INTEGER;
+ALTER TABLE jobs ADD COLUMN stderr_bytes INTEGER;
+ALTER TABLE jobs ADD COLUMN stderr_lines INTEGER;
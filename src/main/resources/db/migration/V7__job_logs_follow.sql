@@ -0,0 +1,3 @@
+-- Followers read "job_id=? AND id>?"; key the index by log id so that is a range seek.
+DROP INDEX IF EXISTS idx_job_logs_job;
+CREATE INDEX IF NOT EXISTS idx_job_logs_job_id ON job_logs(job_id, id);
@@ -0,0 +1,2 @@
+-- Command line of a persistent executor (see ProcessPool); NULL forks a shell per job.
+ALTER TABLE queues ADD COLUMN executor TEXT;
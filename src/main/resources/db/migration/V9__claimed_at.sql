@@ -0,0 +1,2 @@
+-- When the current attempt was leased; with created_at/run_after this gives queue wait per job.
+ALTER TABLE jobs ADD COLUMN claimed_at INTEGER;
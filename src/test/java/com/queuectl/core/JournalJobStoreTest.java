@@ -0,0 +1,74 @@
+package com.queuectl.core;
+
+import com.queuectl.model.Job;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalJobStoreTest {
+  @TempDir Path dir;
+
+  private JournalJobStore open(){ return new JournalJobStore(dir, Instant::now, new WorkNotifier(), new LatencyHistogram()); }
+
+  private static JobStore.NewJob job(String id, String... dependsOn){
+    return new JobStore.NewJob(id, "q", "true", null, 3, 0, 60, null, 0, List.of(dependsOn));
+  }
+
+  private static List<Job> claim(JobStore s){ return s.claim("q", "w", 10, 60, 0); }
+
+  private static List<String> ids(List<Job> jobs){ return jobs.stream().map(Job::id).sorted().toList(); }
+
+  private static Job leased(JobStore s, String id){
+    return s.list("processing", 10).stream().filter(j -> j.id().equals(id)).findFirst().orElseThrow();
+  }
+
+  private static void complete(JobStore s, Job j){ s.markCompleted(j, 0, null, null).join(); }
+
+  @Test void restartKeepsDependenciesOpenUntilEveryParentCompletes(){
+    try (JournalJobStore s = open()) {
+      s.insert(job("p1")); s.insert(job("p2")); s.insert(job("c", "p1", "p2"));
+    }
+    try (JournalJobStore s = open()) {
+      assertEquals(List.of("p1", "p2"), ids(claim(s)));
+      complete(s, leased(s, "p1"));
+    }
+    try (JournalJobStore s = open()) {
+      assertEquals(List.of(), ids(claim(s)), "c still waits on p2");
+      complete(s, leased(s, "p2"));
+      assertEquals(List.of("c"), ids(claim(s)));
+    }
+  }
+
+  @Test void compactionKeepsOpenDependencies(){
+    try (JournalJobStore s = open()) {
+      s.insert(job("p")); s.insert(job("c", "p")); s.insert(job("done"));
+      assertEquals(List.of("done", "p"), ids(claim(s)));
+      complete(s, leased(s, "done"));
+      s.compact();
+    }
+    try (JournalJobStore s = open()) {
+      assertEquals(List.of(), s.list("completed", 10), "compaction drops completed jobs");
+      assertEquals(List.of(), ids(claim(s)), "c still waits on p");
+      complete(s, leased(s, "p"));
+      assertEquals(List.of("c"), ids(claim(s)));
+    }
+  }
+
+  @Test void dependentsReleasedBeforeCompactionStayReleased(){
+    try (JournalJobStore s = open()) {
+      s.insert(job("p")); s.insert(job("c", "p"));
+      assertEquals(List.of("p"), ids(claim(s)));
+      complete(s, leased(s, "p"));
+      s.compact(); // p is gone from the log; c must not wait on it after a restart
+    }
+    try (JournalJobStore s = open()) {
+      assertEquals(List.of("c"), ids(claim(s)));
+      assertEquals(1, s.unfinished("q"));
+    }
+  }
+}